@@ -0,0 +1,57 @@
+package com.example.family;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Leader-wide admission control for client requests (text and binary ports).
+ *
+ * A request is admitted only while fewer than maxInFlight requests and
+ * maxInFlightBytes of request payload are being worked on; otherwise the
+ * listener answers BUSY at once instead of queueing it behind replication.
+ * Per connection the limit is pipelineDepth (text) or one request (binary):
+ * a connection with a full window is simply not read from.
+ *
+ * Counters: admission.rejected (BUSY replies), admission.queued (requests that
+ * had to wait for a connection window slot).
+ */
+public final class Admission {
+
+    private static final long MAX_IN_FLIGHT = NodeConfig.getLong("maxInFlight", 1024);
+    private static final long MAX_IN_FLIGHT_BYTES = NodeConfig.getLong("maxInFlightBytes", 256L * 1024 * 1024);
+
+    private static final AtomicLong inFlight = new AtomicLong();
+    private static final AtomicLong inFlightBytes = new AtomicLong();
+
+    static {
+        LeaderMetrics.gauge("admission.inFlight", inFlight::get);
+        LeaderMetrics.gauge("admission.inFlightBytes", inFlightBytes::get);
+    }
+
+    private Admission() {}
+
+    /** true = admitted, the caller must release(bytes) when the reply is done. */
+    public static boolean tryAcquire(long bytes) {
+        long requests = inFlight.incrementAndGet();
+        long total = inFlightBytes.addAndGet(bytes);
+
+        // a single request larger than the byte limit still gets in when it is alone
+        boolean over = (MAX_IN_FLIGHT > 0 && requests > MAX_IN_FLIGHT)
+                || (MAX_IN_FLIGHT_BYTES > 0 && total > MAX_IN_FLIGHT_BYTES && total != bytes);
+
+        if (over) {
+            release(bytes);
+            LeaderMetrics.increment("admission.rejected");
+            return false;
+        }
+        return true;
+    }
+
+    public static void release(long bytes) {
+        inFlight.decrementAndGet();
+        inFlightBytes.addAndGet(-bytes);
+    }
+
+    public static void queued() {
+        LeaderMetrics.increment("admission.queued");
+    }
+}
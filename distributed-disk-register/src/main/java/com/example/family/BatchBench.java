@@ -0,0 +1,108 @@
+package com.example.family;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * MSET/MGET vs. the same keys as single SET/GET round trips.
+ *
+ * Every round writes `batch` fresh keys once with single SETs and once with one
+ * MSET, then reads them back with single GETs and with one MGET, and reports
+ * keys per second for each. Values are [A-Z] strings without spaces.
+ *
+ *   --batch=100 --rounds=20 --valueBytes=100
+ */
+public class BatchBench {
+
+    public static void main(String[] args) throws Exception {
+        String host = "127.0.0.1";
+        int port = 6666;
+        int batch = 100;
+        int rounds = 20;
+        int valueBytes = 100;
+        for (String a : args) {
+            if (a.startsWith("--host=")) host = a.substring("--host=".length());
+            else if (a.startsWith("--port=")) port = Integer.parseInt(a.substring("--port=".length()));
+            else if (a.startsWith("--batch=")) batch = Integer.parseInt(a.substring("--batch=".length()));
+            else if (a.startsWith("--rounds=")) rounds = Integer.parseInt(a.substring("--rounds=".length()));
+            else if (a.startsWith("--valueBytes=")) valueBytes = Integer.parseInt(a.substring("--valueBytes=".length()));
+        }
+
+        String value = "V".repeat(Math.max(1, valueBytes));
+        long singleSetNs = 0, msetNs = 0, singleGetNs = 0, mgetNs = 0;
+        long errors = 0;
+
+        try (Socket s = new Socket()) {
+            s.connect(new InetSocketAddress(host, port), 5000);
+            s.setSoTimeout(60_000);
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+
+            System.out.printf("BatchBench -> %s:%d | batch=%d | rounds=%d | valueBytes=%d%n",
+                    host, port, batch, rounds, valueBytes);
+
+            for (int r = 0; r < rounds; r++) {
+                long base = 1_000_000L + (long) r * batch * 2;
+
+                // single SET / GET on keys base .. base+batch-1
+                long t0 = System.nanoTime();
+                for (int i = 0; i < batch; i++) {
+                    if (!send(out, in, "SET " + (base + i) + " " + value).equals("OK")) errors++;
+                }
+                long t1 = System.nanoTime();
+                for (int i = 0; i < batch; i++) {
+                    if (!send(out, in, "GET " + (base + i)).startsWith("VALUE")) errors++;
+                }
+                long t2 = System.nanoTime();
+
+                // MSET / MGET on keys base+batch .. base+2*batch-1
+                StringBuilder mset = new StringBuilder("MSET");
+                StringBuilder mget = new StringBuilder("MGET");
+                for (int i = 0; i < batch; i++) {
+                    long id = base + batch + i;
+                    mset.append(' ').append(id).append(' ').append(value);
+                    mget.append(' ').append(id);
+                }
+
+                long t3 = System.nanoTime();
+                String results = send(out, in, mset.toString());
+                long t4 = System.nanoTime();
+                String header = send(out, in, mget.toString());
+                for (int i = 0; i < batch; i++) {
+                    if (!in.readLine().startsWith("VALUE")) errors++;
+                }
+                long t5 = System.nanoTime();
+
+                if (results.contains("ERROR") || !header.equals("VALUES " + batch)) errors++;
+
+                singleSetNs += t1 - t0;
+                singleGetNs += t2 - t1;
+                msetNs += t4 - t3;
+                mgetNs += t5 - t4;
+            }
+        }
+
+        long keys = (long) batch * rounds;
+        System.out.println("case,total_ms,keys_per_sec");
+        print("single SET", keys, singleSetNs);
+        print("MSET", keys, msetNs);
+        print("single GET", keys, singleGetNs);
+        print("MGET", keys, mgetNs);
+        System.out.println("errors=" + errors);
+    }
+
+    private static String send(BufferedWriter out, BufferedReader in, String line) throws IOException {
+        out.write(line);
+        out.write("\n");
+        out.flush();
+        String resp = in.readLine();
+        if (resp == null) throw new EOFException("server closed connection");
+        return resp;
+    }
+
+    private static void print(String name, long keys, long ns) {
+        System.out.printf("%s,%d,%.0f%n", name, ns / 1_000_000L, keys / (ns / 1e9));
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.family;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Leader listener for the binary protocol (see BinaryProtocol).
+ * One (virtual, when enabled) thread per connection, one request at a time;
+ * a SET value is read straight into a byte[] and handed on without copying.
+ * Values above streamThresholdBytes are streamed in chunks both ways (LargeValues).
+ */
+public class BinaryListener {
+
+    private static final int SCAN_DEFAULT_LIMIT = NodeConfig.getInt("scanDefaultLimit", 1000);
+
+    private final int port;
+    private final int maxValueBytes;
+    private final LeaderStore store;
+    private final ExecutorService clientThreads = Workers.perTask();
+
+    public BinaryListener(int port, int maxValueBytes, LeaderStore store) {
+        this.port = port;
+        this.maxValueBytes = maxValueBytes;
+        this.store = store;
+    }
+
+    public void start() {
+        new Thread(() -> {
+            try (ServerSocket serverSocket = new ServerSocket(port)) {
+                System.out.println("Leader listening on TCP " + port + " (binary)");
+
+                while (true) {
+                    Socket client = serverSocket.accept();
+                    client.setTcpNoDelay(true);
+                    clientThreads.execute(() -> handleClient(client));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "binary-acceptor").start();
+    }
+
+    private void handleClient(Socket client) {
+        LeaderMetrics.add("connections.open", 1);
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(client.getInputStream(), 64 * 1024));
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(client.getOutputStream(), 64 * 1024))) {
+
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                long id = in.readLong();
+                int len = in.readInt();
+
+                if (len < 0 || len > maxValueBytes) {
+                    System.err.println("Binary client sent a " + len + " byte value, closing");
+                    writeResponse(out, BinaryProtocol.STATUS_ERROR, id, ByteString.EMPTY);
+                    break;
+                }
+
+                // a streamed value never has more than about a chunk of it on the leader
+                long bytes = len > LargeValues.STREAM_THRESHOLD_BYTES ? LargeValues.CHUNK_BYTES : len;
+                if (!Admission.tryAcquire(bytes)) {
+                    in.skipNBytes(len);
+                    writeResponse(out, BinaryProtocol.STATUS_BUSY, id, ByteString.EMPTY);
+                    continue;
+                }
+
+                try {
+                    handleRequest(op, id, len, in, out);
+                } finally {
+                    Admission.release(bytes);
+                }
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            LeaderMetrics.add("connections.open", -1);
+        }
+    }
+
+    private void handleRequest(byte op,
+                               long id,
+                               int len,
+                               DataInputStream in,
+                               DataOutputStream out) throws IOException {
+
+        if (op == BinaryProtocol.OP_SET || (op == BinaryProtocol.OP_SET_W && len > 0)) {
+            int w = WriteConsistency.DEFAULT;
+            if (op == BinaryProtocol.OP_SET_W) {
+                w = in.readByte();
+                len--;
+                if (!WriteConsistency.isLevel(w)) {
+                    in.skipNBytes(len);
+                    writeResponse(out, BinaryProtocol.STATUS_ERROR, id, ByteString.EMPTY);
+                    return;
+                }
+            }
+
+            boolean ok;
+            if (len > LargeValues.STREAM_THRESHOLD_BYTES) {
+                // chunks go from the socket to the replicas, never one big byte[]
+                ok = store.setStream(id, len, in, w);
+            } else {
+                byte[] value = new byte[len];
+                in.readFully(value);
+                ok = store.set(id, UnsafeByteOperations.unsafeWrap(value), w);
+            }
+            writeResponse(out,
+                    ok ? BinaryProtocol.STATUS_OK : BinaryProtocol.STATUS_ERROR,
+                    id, ByteString.EMPTY);
+
+        } else if (op == BinaryProtocol.OP_GET) {
+            in.skipNBytes(len);
+            boolean found = store.getStream(id, new LeaderStore.ValueSink() {
+                @Override
+                public void begin(long size) throws IOException {
+                    out.writeByte(BinaryProtocol.STATUS_VALUE);
+                    out.writeLong(id);
+                    out.writeInt(Math.toIntExact(size));
+                }
+
+                @Override
+                public void write(ByteString chunk) throws IOException {
+                    chunk.writeTo(out);
+                }
+            });
+            if (found) {
+                out.flush();
+            } else {
+                writeResponse(out, BinaryProtocol.STATUS_NOT_FOUND, id, ByteString.EMPTY);
+            }
+
+        } else if (op == BinaryProtocol.OP_SCAN && len == 8 + 4) {
+            long to = in.readLong();
+            int limit = in.readInt();
+            int n;
+            try {
+                n = store.scan(id, to, limit > 0 ? limit : SCAN_DEFAULT_LIMIT, new LeaderStore.EntrySink() {
+                    @Override
+                    public void entry(long entryId, ByteString value) throws IOException {
+                        writeResponse(out, BinaryProtocol.STATUS_VALUE, entryId, value);
+                    }
+
+                    // large values go out chunk by chunk, like a GET
+                    @Override
+                    public LeaderStore.ValueSink value(long entryId) {
+                        return new LeaderStore.ValueSink() {
+                            @Override
+                            public void begin(long size) throws IOException {
+                                out.writeByte(BinaryProtocol.STATUS_VALUE);
+                                out.writeLong(entryId);
+                                out.writeInt(Math.toIntExact(size));
+                            }
+
+                            @Override
+                            public void write(ByteString chunk) throws IOException {
+                                chunk.writeTo(out);
+                            }
+                        };
+                    }
+                });
+            } catch (IOException e) {
+                writeResponse(out, BinaryProtocol.STATUS_ERROR, id, ByteString.EMPTY);
+                return;
+            }
+            writeResponse(out, BinaryProtocol.STATUS_OK, n, ByteString.EMPTY);
+
+        } else {
+            in.skipNBytes(len);
+            writeResponse(out, BinaryProtocol.STATUS_ERROR, id, ByteString.EMPTY);
+        }
+    }
+
+    private static void writeResponse(DataOutputStream out,
+                                      byte status,
+                                      long id,
+                                      ByteString value) throws IOException {
+        out.writeByte(status);
+        out.writeLong(id);
+        out.writeInt(value.size());
+        value.writeTo(out);
+        out.flush();
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.family;
+
+/**
+ * Length-prefixed binary client protocol (leader port binaryPort, default 6667).
+ *
+ * Request:  [opcode:1][id:8][length:4][value:length]   (GET sends length=0)
+ *           OP_SET_W: value = [w:1][value:length-1], w = write consistency
+ *           (-1 ALL, -2 QUORUM, 0 ASYNC, else acks, see WriteConsistency;
+           any other w is answered with ERROR)
+ *           OP_SCAN: id = from, value = [to:8][limit:4] (limit 0 = scanDefaultLimit)
+ * Response: [status:1][id:8][length:4][value:length]   (only VALUE carries bytes)
+ *           OP_SCAN: one VALUE per id in [from, to], ascending, each sent as it
+ *           is merged, then OK with id = number of values
+ *
+ * Big-endian, as written by DataOutputStream. Values are raw bytes, so spaces,
+ * newlines and large payloads need no escaping, splitting or charset decoding.
+ */
+public final class BinaryProtocol {
+
+    public static final byte OP_SET = 1;
+    public static final byte OP_GET = 2;
+    public static final byte OP_SET_W = 3;
+    public static final byte OP_SCAN = 4;
+
+    public static final byte STATUS_OK = 0;
+    public static final byte STATUS_VALUE = 1;
+    public static final byte STATUS_NOT_FOUND = 2;
+    public static final byte STATUS_ERROR = 3;
+    public static final byte STATUS_BUSY = 4;      // leader over its admission limits, retry later
+
+    public static final int HEADER_BYTES = 1 + 8 + 4;
+
+    private BinaryProtocol() {}
+}
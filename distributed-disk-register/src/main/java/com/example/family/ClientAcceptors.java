@@ -0,0 +1,71 @@
+package com.example.family;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.function.Consumer;
+
+/**
+ * Accept loops for a client port.
+ *
+ * With acceptors > 1 and SO_REUSEPORT available (Linux), the port is bound once
+ * per acceptor thread and the kernel spreads new connections over the sockets,
+ * so a reconnect storm is not serialized behind one accept() loop. Without
+ * SO_REUSEPORT all acceptor threads share one listening socket.
+ * Accepted channels are in blocking mode; the callback decides what to do with them.
+ */
+public final class ClientAcceptors {
+
+    private static final int BACKLOG = 1024;
+
+    private ClientAcceptors() {}
+
+    public static void start(String name,
+                             int port,
+                             int acceptors,
+                             Consumer<SocketChannel> onAccept) throws IOException {
+
+        int n = Math.max(1, acceptors);
+
+        ServerSocketChannel first = ServerSocketChannel.open();
+        boolean reusePort = n > 1 && first.supportedOptions()
+                .contains(StandardSocketOptions.SO_REUSEPORT);
+        if (reusePort) first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        first.bind(new InetSocketAddress(port), BACKLOG);
+
+        for (int i = 0; i < n; i++) {
+            ServerSocketChannel server = (i == 0 || !reusePort) ? first : bindReusePort(port);
+
+            Thread t = new Thread(() -> acceptLoop(server, onAccept), name + "-acceptor-" + i);
+            t.start();
+        }
+
+        System.out.println("Leader listening on TCP " + port + " (" + name
+                + ", acceptors=" + n + (reusePort ? ", SO_REUSEPORT" : "") + ")");
+    }
+
+    private static ServerSocketChannel bindReusePort(int port) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        server.bind(new InetSocketAddress(port), BACKLOG);
+        return server;
+    }
+
+    private static void acceptLoop(ServerSocketChannel server, Consumer<SocketChannel> onAccept) {
+        while (server.isOpen()) {
+            try {
+                SocketChannel ch = server.accept();
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                LeaderMetrics.increment("connections.accepted");
+                onAccept.accept(ch);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.family;
+
+import com.google.protobuf.ByteString;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs the commands of one client connection concurrently.
+ *
+ * Commands for different ids overlap (their replication fan-outs run side by side),
+ * but a command is chained behind an earlier in-flight command on the same id,
+ * so "SET 5 x" followed by "GET 5" on one connection still reads x. The chain
+ * is kept per slot (ID_SLOTS slots, by the id's hash), not per id: no boxed id
+ * or map node per command, and two ids sharing a slot just run one after the other.
+ * Commands without a single id (MSET, MGET, STATS, ...) act as a barrier: they
+ * wait for everything before them, and everything after waits for them.
+ * Replies must still be written in submission order by the caller.
+ *
+ * Lines are submitted as Strings (handler) or, by the nio codec, already parsed
+ * (set/get on the LeaderStore). Submissions come from a single thread per
+ * connection (reader thread or nio loop).
+ */
+public class CommandPipeline {
+
+    private final Function<String, String> handler;
+    private final LeaderStore store;
+    private final Executor workers;
+    private static final int ID_SLOTS = 64;
+
+    // last in-flight command per id slot, cleared when it completes
+    private final AtomicReferenceArray<CompletableFuture<?>> lastBySlot = new AtomicReferenceArray<>(ID_SLOTS);
+    private final AtomicReference<CompletableFuture<?>> lastBarrier = new AtomicReference<>();
+
+    public CommandPipeline(Function<String, String> handler, LeaderStore store, Executor workers) {
+        this.handler = handler;
+        this.store = store;
+        this.workers = workers;
+    }
+
+    public CompletableFuture<String> submit(String line) {
+        int end = idEnd(line);
+        if (end > 0) {
+            try {
+                long id = Long.parseLong(line, 4, end, 10);
+                return run(id, () -> handler.apply(line));
+            } catch (NumberFormatException e) {
+                // no single id: a barrier like the rest
+            }
+        }
+        return barrier(() -> handler.apply(line));
+    }
+
+    public CompletableFuture<Boolean> set(long id, ByteString value, int w) {
+        return run(id, () -> store.set(id, value, w));
+    }
+
+    public CompletableFuture<ByteString> get(long id) {
+        return run(id, () -> store.get(id));
+    }
+
+    private <T> CompletableFuture<T> run(long id, Supplier<T> task) {
+        int slot = (int) (HashRing.mix(id) & (ID_SLOTS - 1));
+        CompletableFuture<?> prev = lastBySlot.get(slot);
+        CompletableFuture<?> barrier = lastBarrier.get();
+
+        CompletableFuture<?> after = (prev == null) ? barrier
+                : (barrier == null) ? prev
+                : CompletableFuture.allOf(prev, barrier);
+
+        CompletableFuture<T> f = after(after, task);
+
+        lastBySlot.set(slot, f);
+        f.whenComplete((r, e) -> lastBySlot.compareAndSet(slot, f, null));
+        return f;
+    }
+
+    private <T> CompletableFuture<T> barrier(Supplier<T> task) {
+        List<CompletableFuture<?>> inFlight = new ArrayList<>();
+        for (int i = 0; i < ID_SLOTS; i++) {
+            CompletableFuture<?> f = lastBySlot.get(i);
+            if (f != null) inFlight.add(f);
+        }
+        CompletableFuture<?>[] before = inFlight.toArray(new CompletableFuture<?>[0]);
+        CompletableFuture<?> barrier = lastBarrier.get();
+
+        CompletableFuture<?> after = (before.length == 0) ? barrier
+                : (barrier == null) ? CompletableFuture.allOf(before)
+                : CompletableFuture.allOf(CompletableFuture.allOf(before), barrier);
+
+        CompletableFuture<T> f = after(after, task);
+
+        lastBarrier.set(f);
+        f.whenComplete((r, e) -> lastBarrier.compareAndSet(f, null));
+        return f;
+    }
+
+    private <T> CompletableFuture<T> after(CompletableFuture<?> prev, Supplier<T> task) {
+        if (prev == null) {
+            return CompletableFuture.supplyAsync(task, workers);
+        }
+        // run after prev whether it failed or not
+        return prev.handle((r, e) -> null)
+                   .thenApplyAsync(x -> task.get(), workers);
+    }
+
+    // "SET <id> ..." / "GET <id>" -> end of <id>, anything else -> -1
+    // (no split: a SET line may carry a 1 MB value)
+    private static int idEnd(String line) {
+        int sp1 = line.indexOf(' ');
+        if (sp1 != 3) return -1;
+        if (!line.regionMatches(true, 0, "SET", 0, 3)
+                && !line.regionMatches(true, 0, "GET", 0, 3)) return -1;
+
+        int sp2 = line.indexOf(' ', sp1 + 1);
+        return sp2 < 0 ? line.length() : sp2;
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.family;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.MessageLite;
+import family.*;
+import io.grpc.*;
+
+import java.util.zip.Deflater;
+
+/**
+ * Per-message payload compression on leader <-> follower RPCs.
+ *
+ * Uses a codec from gRPC's CompressorRegistry (compression=gzip, gRPC's own
+ * java.util.zip based Codec.Gzip; none = off). The client side (PeerChannels)
+ * compresses Store / StoreBatch / StoreStream / ReplicationStream messages, the
+ * server side (NodeMain) Retrieve / RetrieveBatch / ReadStream replies. Replies
+ * are only compressed when the caller listed the codec in grpc-accept-encoding,
+ * gRPC drops back to identity otherwise, so old nodes keep working.
+ *
+ * A message is compressed only when it is at least compressMinBytes and the first
+ * SAMPLE_BYTES of its value shrink to compressMaxRatio or less at BEST_SPEED;
+ * already compressed or random data is sent as it is.
+ *
+ * Counters: compression.compressed, compression.incompressible.
+ */
+public final class Compression {
+
+    public static final String CODEC = codec(NodeConfig.getString("compression", "none"));
+
+    private static final int MIN_BYTES = NodeConfig.getInt("compressMinBytes", 4096);
+    private static final double MAX_RATIO = NodeConfig.getDouble("compressMaxRatio", 0.9);
+
+    static final int SAMPLE_BYTES = 4096;
+
+    private static final ThreadLocal<Deflater> deflater =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<byte[]> sampleOut =
+            ThreadLocal.withInitial(() -> new byte[SAMPLE_BYTES + 64]);
+
+    private Compression() {}
+
+    private static String codec(String name) {
+        if (name.equalsIgnoreCase("none")) return null;
+        if (CompressorRegistry.getDefaultInstance().lookupCompressor(name) == null) {
+            System.err.println("WARNING: unknown compression " + name + ", sending uncompressed");
+            return null;
+        }
+        return name;
+    }
+
+    public static boolean enabled() {
+        return CODEC != null;
+    }
+
+    /** For ManagedChannelBuilder.intercept: compresses what the leader sends. */
+    public static ClientInterceptor client() {
+        return new ClientInterceptor() {
+            @Override
+            public <Q, R> ClientCall<Q, R> interceptCall(MethodDescriptor<Q, R> method,
+                                                       CallOptions options,
+                                                       Channel next) {
+                if (!enabled()) return next.newCall(method, options);
+
+                return new ForwardingClientCall.SimpleForwardingClientCall<>(
+                        next.newCall(method, options.withCompression(CODEC))) {
+                    @Override
+                    public void sendMessage(Q message) {
+                        delegate().setMessageCompression(worthIt(message));
+                        super.sendMessage(message);
+                    }
+                };
+            }
+        };
+    }
+
+    /** For ServerInterceptors.intercept: compresses what a follower answers. */
+    public static ServerInterceptor server() {
+        return new ServerInterceptor() {
+            @Override
+            public <Q, R> ServerCall.Listener<Q> interceptCall(ServerCall<Q, R> call,
+                                                              Metadata headers,
+                                                              ServerCallHandler<Q, R> next) {
+                if (!enabled()) return next.startCall(call, headers);
+
+                call.setCompression(CODEC);
+                return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+                    @Override
+                    public void sendMessage(R message) {
+                        delegate().setMessageCompression(worthIt(message));
+                        super.sendMessage(message);
+                    }
+                }, headers);
+            }
+        };
+    }
+
+    /** Big enough and its value looks compressible. */
+    public static boolean worthIt(Object message) {
+        if (!(message instanceof MessageLite)) return false;
+        if (((MessageLite) message).getSerializedSize() < MIN_BYTES) return false;
+
+        ByteString value = value(message);
+        if (value == null || compressible(value)) {
+            LeaderMetrics.increment("compression.compressed");
+            return true;
+        }
+        LeaderMetrics.increment("compression.incompressible");
+        return false;
+    }
+
+    // the value bytes of the messages that carry one (the first one of a batch)
+    private static ByteString value(Object m) {
+        if (m instanceof StoredMessage) return ((StoredMessage) m).getValue();
+        if (m instanceof ValueChunk) return ((ValueChunk) m).getData();
+        if (m instanceof RetrieveResponse) return ((RetrieveResponse) m).getValue();
+        if (m instanceof StoredBatch && ((StoredBatch) m).getMessagesCount() > 0) {
+            return ((StoredBatch) m).getMessages(0).getValue();
+        }
+        if (m instanceof ReplicationFrame && ((ReplicationFrame) m).getMessagesCount() > 0) {
+            return ((ReplicationFrame) m).getMessages(0).getValue();
+        }
+        return null;
+    }
+
+    /** The first SAMPLE_BYTES of value shrink to MAX_RATIO or less. */
+    public static boolean compressible(ByteString value) {
+        byte[] sample = value.substring(0, Math.min(SAMPLE_BYTES, value.size())).toByteArray();
+        if (sample.length == 0) return false;
+
+        Deflater d = deflater.get();
+        byte[] out = sampleOut.get();
+        d.reset();
+        d.setInput(sample);
+        d.finish();
+        int n = 0;
+        while (!d.finished() && n < out.length) {
+            n += d.deflate(out, n, out.length - n);
+        }
+        return d.finished() && n <= sample.length * MAX_RATIO;
+    }
+}
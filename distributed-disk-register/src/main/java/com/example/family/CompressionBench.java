@@ -0,0 +1,151 @@
+package com.example.family;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import io.grpc.Codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * CPU cost vs. bytes saved of the inter-node payload compression (Compression).
+ *
+ * For every payload kind and size it reports what gRPC's gzip codec makes of
+ * the value, the time to compress and decompress it, and whether Compression's
+ * sample check would send it compressed at all:
+ *
+ *   random  [A-Z0-9], exactly as HaToKuSeClient generates values
+ *   text    English prose (word frequencies roughly Zipf)
+ *   json    log-like JSON records
+ *   binary  random bytes (already compressed data)
+ *
+ *   --sizes=4096,65536,1000000 --iterations=50
+ */
+public class CompressionBench {
+
+    private static final String[] WORDS = (
+            "the of and to a in is it you that he was for on are with as his they be at one have this " +
+            "from or had by word but what some we can out other were all there when up use your how said " +
+            "an each she which do their time if will way about many then them write would like so these " +
+            "her long make thing see him two has look more day could go come did number sound no most " +
+            "people my over know water than call first who may down side been now find any new work part " +
+            "take get place made live where after back little only round man year came show every good " +
+            "replica leader follower disk value message node family tolerance stored network latency")
+            .split(" ");
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {4096, 65536, 1_000_000};
+        int iterations = 50;
+        for (String a : args) {
+            if (a.startsWith("--sizes=")) {
+                String[] s = a.substring("--sizes=".length()).split(",");
+                sizes = new int[s.length];
+                for (int i = 0; i < s.length; i++) sizes[i] = Integer.parseInt(s[i].trim());
+            } else if (a.startsWith("--iterations=")) {
+                iterations = Integer.parseInt(a.substring("--iterations=".length()));
+            }
+        }
+
+        Codec codec = new Codec.Gzip();
+        Random rnd = new Random(42);
+
+        System.out.printf("CompressionBench | codec=%s | iterations=%d%n", codec.getMessageEncoding(), iterations);
+        System.out.println("payload,bytes,compressed_bytes,saved_pct,compress_us,decompress_us,ns_per_saved_byte,sent_compressed");
+
+        for (int round = 0; round < 2; round++) {
+            boolean print = round == 1;   // first round is warm-up
+            for (int size : sizes) {
+                run("random", randomAscii(rnd, size), codec, iterations, print);
+                run("text", text(rnd, size), codec, iterations, print);
+                run("json", json(rnd, size), codec, iterations, print);
+                run("binary", binary(rnd, size), codec, iterations, print);
+            }
+        }
+    }
+
+    private static void run(String name, byte[] value, Codec codec, int iterations, boolean print)
+            throws IOException {
+
+        byte[] compressed = null;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(value.length / 2 + 64);
+            try (OutputStream out = codec.compress(bos)) {
+                out.write(value);
+            }
+            compressed = bos.toByteArray();
+        }
+        long compressNs = (System.nanoTime() - start) / iterations;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            try (InputStream in = codec.decompress(new ByteArrayInputStream(compressed))) {
+                in.readAllBytes();
+            }
+        }
+        long decompressNs = (System.nanoTime() - start) / iterations;
+
+        boolean sent = value.length >= NodeConfig.getInt("compressMinBytes", 4096)
+                && Compression.compressible(UnsafeByteOperations.unsafeWrap(value));
+
+        long saved = value.length - compressed.length;
+        if (print) {
+            System.out.printf("%s,%d,%d,%.1f,%d,%d,%s,%s%n",
+                    name, value.length, compressed.length, 100.0 * saved / value.length,
+                    compressNs / 1_000, decompressNs / 1_000,
+                    saved > 0 ? String.format("%.1f", compressNs / (double) saved) : "-",
+                    sent ? "yes" : "no");
+        }
+    }
+
+    private static byte[] randomAscii(Random rnd, int bytes) {
+        byte[] chars = new byte[bytes];
+        for (int i = 0; i < bytes; i++) {
+            int r = rnd.nextInt(36);
+            chars[i] = (byte) ((r < 10) ? ('0' + r) : ('A' + (r - 10)));
+        }
+        return chars;
+    }
+
+    private static byte[] text(Random rnd, int bytes) {
+        StringBuilder sb = new StringBuilder(bytes + 32);
+        boolean sentenceStart = true;
+        while (sb.length() < bytes) {
+            // low ranks much more often than high ones
+            String w = WORDS[(int) (WORDS.length * Math.pow(rnd.nextDouble(), 3))];
+            if (sentenceStart) w = Character.toUpperCase(w.charAt(0)) + w.substring(1);
+            sb.append(w);
+
+            sentenceStart = rnd.nextInt(12) == 0;
+            sb.append(sentenceStart ? ". " : " ");
+        }
+        return ByteString.copyFromUtf8(sb.toString()).substring(0, bytes).toByteArray();
+    }
+
+    private static byte[] json(Random rnd, int bytes) {
+        String[] levels = {"INFO", "INFO", "INFO", "WARN", "DEBUG", "ERROR"};
+        StringBuilder sb = new StringBuilder(bytes + 256);
+        long ts = 1_760_000_000_000L;
+        while (sb.length() < bytes) {
+            ts += rnd.nextInt(50);
+            sb.append("{\"ts\":").append(ts)
+              .append(",\"level\":\"").append(levels[rnd.nextInt(levels.length)])
+              .append("\",\"node\":\"127.0.0.1:").append(5556 + rnd.nextInt(4))
+              .append("\",\"id\":").append(rnd.nextInt(1_000_000))
+              .append(",\"latencyUs\":").append(rnd.nextInt(5_000))
+              .append(",\"msg\":\"").append(WORDS[rnd.nextInt(WORDS.length)]).append(' ')
+              .append(WORDS[rnd.nextInt(WORDS.length)]).append("\"}\n");
+        }
+        return ByteString.copyFromUtf8(sb.toString()).substring(0, bytes).toByteArray();
+    }
+
+    private static byte[] binary(Random rnd, int bytes) {
+        byte[] b = new byte[bytes];
+        rnd.nextBytes(b);
+        return b;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.family;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Connection count vs. leader memory and latency.
+ *
+ * Opens idle connections to the leader in steps and, at every step, measures
+ * GET round trips on one extra "probe" connection. Leader heap/thread numbers
+ * come from the STATS command. Run it once per listener mode and compare:
+ *
+ *   -DclientIo=blocking   (thread per connection)
+ *   -DclientIo=nio        (selector loops)
+ *
+ * Large steps need a raised fd limit on both sides (ulimit -n).
+ */
+public class ConnectionScaleBench {
+
+    private static final class Config {
+        String host = "127.0.0.1";
+        int port = 6666;
+        int[] steps = {100, 1_000, 2_000, 5_000, 10_000};
+        int samples = 2_000;
+        int connectTimeoutMs = 5000;
+        int readTimeoutMs = 15000;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config cfg = parseArgs(args);
+        List<Socket> idle = new ArrayList<>();
+
+        System.out.printf("ConnectionScaleBench -> %s:%d | steps=%s | samples=%d%n",
+                cfg.host, cfg.port, Arrays.toString(cfg.steps), cfg.samples);
+        System.out.println("connections,heap_used_mb,leader_threads,p50_us,p99_us,max_us");
+
+        try (Socket probe = open(cfg);
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(probe.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(
+                     new OutputStreamWriter(probe.getOutputStream(), StandardCharsets.UTF_8))) {
+
+            roundTrip(out, in, "SET 1 PROBE");
+
+            for (int step : cfg.steps) {
+                while (idle.size() < step) {
+                    idle.add(open(cfg));
+                }
+
+                long[] rtt = new long[cfg.samples];
+                for (int i = 0; i < cfg.samples; i++) {
+                    long start = System.nanoTime();
+                    roundTrip(out, in, "GET 1");
+                    rtt[i] = (System.nanoTime() - start) / 1_000L;
+                }
+                Arrays.sort(rtt);
+
+                String stats = roundTrip(out, in, "STATS");
+                System.out.printf("%d,%s,%s,%d,%d,%d%n",
+                        idle.size(),
+                        statValue(stats, "jvm.heapUsedMb"),
+                        statValue(stats, "jvm.threads"),
+                        percentile(rtt, 0.50),
+                        percentile(rtt, 0.99),
+                        rtt[rtt.length - 1]);
+            }
+        } finally {
+            for (Socket s : idle) {
+                try { s.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    private static Socket open(Config cfg) throws IOException {
+        Socket s = new Socket();
+        s.connect(new InetSocketAddress(cfg.host, cfg.port), cfg.connectTimeoutMs);
+        s.setSoTimeout(cfg.readTimeoutMs);
+        return s;
+    }
+
+    private static String roundTrip(BufferedWriter out, BufferedReader in, String line) throws IOException {
+        out.write(line);
+        out.write("\n");
+        out.flush();
+        String resp = in.readLine();
+        if (resp == null) throw new EOFException("server closed connection");
+        return resp;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+    }
+
+    private static String statValue(String stats, String key) {
+        for (String kv : stats.split(" ")) {
+            if (kv.startsWith(key + "=")) return kv.substring(key.length() + 1);
+        }
+        return "";
+    }
+
+    private static Config parseArgs(String[] args) {
+        Config c = new Config();
+        for (String a : args) {
+            if (a.startsWith("--host=")) c.host = a.substring("--host=".length());
+            else if (a.startsWith("--port=")) c.port = Integer.parseInt(a.substring("--port=".length()));
+            else if (a.startsWith("--steps=")) c.steps = Arrays.stream(a.substring("--steps=".length()).split(","))
+                    .mapToInt(Integer::parseInt).toArray();
+            else if (a.startsWith("--samples=")) c.samples = Integer.parseInt(a.substring("--samples=".length()));
+            else if (a.startsWith("--connectTimeoutMs=")) c.connectTimeoutMs = Integer.parseInt(a.substring("--connectTimeoutMs=".length()));
+            else if (a.startsWith("--readTimeoutMs=")) c.readTimeoutMs = Integer.parseInt(a.substring("--readTimeoutMs=".length()));
+        }
+        if (c.samples < 1) c.samples = 1;
+        return c;
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.family;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reconnect storm against the leader's client port.
+ *
+ * `threads` client threads start together and each opens `connectionsPerThread`
+ * connections back to back, sending one command per connection and keeping the
+ * connection open (like HaToKuSeClient reconnecting after a failover). Reports
+ * the accept rate and connect / first-response latency percentiles. The default
+ * command is STATS, which the leader answers without asking followers, so the
+ * numbers are about accepting; --command="GET 1" adds a replica read. Compare:
+ *
+ *   -DacceptorThreads=1   (one accept loop)
+ *   -DacceptorThreads=4   (SO_REUSEPORT, one listening socket per acceptor)
+ *
+ *   --threads=32 --connectionsPerThread=100 --command=STATS
+ */
+public class ConnectionStormBench {
+
+    private static final class Config {
+        String host = "127.0.0.1";
+        int port = 6666;
+        int threads = 32;
+        int connectionsPerThread = 100;
+        String command = "STATS";
+        int connectTimeoutMs = 10000;
+        int readTimeoutMs = 15000;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config cfg = parseArgs(args);
+        int total = cfg.threads * cfg.connectionsPerThread;
+        byte[] request = (cfg.command + "\n").getBytes(StandardCharsets.UTF_8);
+
+        long[] connectUs = new long[total];
+        long[] firstReplyUs = new long[total];
+        AtomicInteger failed = new AtomicInteger();
+        List<Socket> open = new ArrayList<>();
+
+        System.out.printf("ConnectionStormBench -> %s:%d | threads=%d | connections=%d | command=%s%n",
+                cfg.host, cfg.port, cfg.threads, total, cfg.command);
+
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> clients = new ArrayList<>();
+        for (int t = 0; t < cfg.threads; t++) {
+            int base = t * cfg.connectionsPerThread;
+            Thread th = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < cfg.connectionsPerThread; i++) {
+                    int idx = base + i;
+                    try {
+                        long start = System.nanoTime();
+                        Socket s = new Socket();
+                        s.connect(new InetSocketAddress(cfg.host, cfg.port), cfg.connectTimeoutMs);
+                        s.setSoTimeout(cfg.readTimeoutMs);
+                        connectUs[idx] = (System.nanoTime() - start) / 1_000L;
+
+                        synchronized (open) {
+                            open.add(s);
+                        }
+
+                        OutputStream out = s.getOutputStream();
+                        out.write(request);
+                        out.flush();
+                        if (readLine(s.getInputStream()) == null) throw new EOFException();
+                        firstReplyUs[idx] = (System.nanoTime() - start) / 1_000L;
+
+                    } catch (IOException e) {
+                        failed.incrementAndGet();
+                        connectUs[idx] = -1;
+                        firstReplyUs[idx] = -1;
+                    }
+                }
+            }, "storm-" + t);
+            th.start();
+            clients.add(th);
+        }
+
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread th : clients) {
+            th.join();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        try {
+            long[] connect = Arrays.stream(connectUs).filter(v -> v >= 0).sorted().toArray();
+            long[] first = Arrays.stream(firstReplyUs).filter(v -> v >= 0).sorted().toArray();
+
+            System.out.println("connections,failed,secs,accepts_per_sec,"
+                    + "connect_p50_us,connect_p99_us,first_reply_p50_us,first_reply_p99_us,first_reply_max_us");
+            System.out.printf("%d,%d,%.2f,%.0f,%d,%d,%d,%d,%d%n",
+                    total, failed.get(), secs, connect.length / secs,
+                    percentile(connect, 0.50), percentile(connect, 0.99),
+                    percentile(first, 0.50), percentile(first, 0.99),
+                    first.length == 0 ? 0 : first[first.length - 1]);
+        } finally {
+            for (Socket s : open) {
+                try { s.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    // one reply line, without buffering past it
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') return sb.toString();
+            sb.append((char) b);
+        }
+        return null;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+    }
+
+    private static Config parseArgs(String[] args) {
+        Config c = new Config();
+        for (String a : args) {
+            if (a.startsWith("--host=")) c.host = a.substring("--host=".length());
+            else if (a.startsWith("--port=")) c.port = Integer.parseInt(a.substring("--port=".length()));
+            else if (a.startsWith("--threads=")) c.threads = Integer.parseInt(a.substring("--threads=".length()));
+            else if (a.startsWith("--connectionsPerThread=")) c.connectionsPerThread = Integer.parseInt(a.substring("--connectionsPerThread=".length()));
+            else if (a.startsWith("--command=")) c.command = a.substring("--command=".length());
+            else if (a.startsWith("--connectTimeoutMs=")) c.connectTimeoutMs = Integer.parseInt(a.substring("--connectTimeoutMs=".length()));
+            else if (a.startsWith("--readTimeoutMs=")) c.readTimeoutMs = Integer.parseInt(a.substring("--readTimeoutMs=".length()));
+        }
+        if (c.threads < 1) c.threads = 1;
+        if (c.connectionsPerThread < 1) c.connectionsPerThread = 1;
+        return c;
+    }
+}
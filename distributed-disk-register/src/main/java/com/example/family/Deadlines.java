@@ -0,0 +1,94 @@
+package com.example.family;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.Context;
+import io.grpc.stub.AbstractStub;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Per-RPC deadlines for leader -> follower calls, so a hung follower fails the
+ * call instead of holding a client thread (or node startup) forever.
+ *
+ *   storeDeadlineMs  Store, StoreBatch and a SET on the ReplicationStream
+ *   getDeadlineMs    Retrieve, RetrieveBatch and the PeerHealth probes
+ *   joinDeadlineMs   Join while discovering the family at startup
+ *
+ * Chunked StoreStream/ReadStream calls last as long as the value is big, so
+ * they get a stall deadline instead: an upload whose follower takes no chunk
+ * (or gives no ack) for storeDeadlineMs, a download that gets no chunk for
+ * getDeadlineMs, fails (see LargeValues, Stall).
+ */
+public final class Deadlines {
+
+    public static final long STORE_MS = NodeConfig.getLong("storeDeadlineMs", 2000);
+    public static final long GET_MS = NodeConfig.getLong("getDeadlineMs", 2000);
+    public static final long JOIN_MS = NodeConfig.getLong("joinDeadlineMs", 1000);
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "deadlines");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Deadlines() {}
+
+    public static <S extends AbstractStub<S>> S store(S stub) {
+        return stub.withDeadlineAfter(STORE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static <S extends AbstractStub<S>> S get(S stub) {
+        return stub.withDeadlineAfter(GET_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static <S extends AbstractStub<S>> S join(S stub) {
+        return stub.withDeadlineAfter(JOIN_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Cancels `call` once it waited for the peer longer than `ms` in one go. */
+    public static Stall stall(Context.CancellableContext call, long ms) {
+        return new Stall(call, ms);
+    }
+
+    /** Stall deadline of one streaming call: waiting() before each wait for the peer, progress() after. */
+    public static final class Stall implements AutoCloseable {
+
+        private volatile long waitingSince = 0;
+        private final ScheduledFuture<?> check;
+
+        private Stall(Context.CancellableContext call, long ms) {
+            long limit = ms * 1_000_000L;
+            long period = Math.max(1, ms / 4);
+            this.check = timer.scheduleAtFixedRate(() -> {
+                long since = waitingSince;
+                if (since != 0 && System.nanoTime() - since > limit) {
+                    // TimeoutException: the call fails with DEADLINE_EXCEEDED
+                    call.cancel(new TimeoutException("no progress for " + ms + " ms"));
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        public void waiting() {
+            waitingSince = System.nanoTime();
+        }
+
+        public void progress() {
+            waitingSince = 0;
+        }
+
+        @Override
+        public void close() {
+            check.cancel(false);
+        }
+    }
+
+    /** For calls that are not a gRPC call of their own (a SET on a shared stream). */
+    public static <T> ListenableFuture<T> within(ListenableFuture<T> f, long ms) {
+        return Futures.withTimeout(f, ms, TimeUnit.MILLISECONDS, timer);
+    }
+}
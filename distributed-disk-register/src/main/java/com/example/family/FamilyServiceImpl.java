@@ -1,12 +1,24 @@
 package com.example.family;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import family.*;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
-import java.nio.charset.StandardCharsets;
 import java.io.IOException;
 
 public class FamilyServiceImpl extends FamilyServiceGrpc.FamilyServiceImplBase {
@@ -15,12 +27,35 @@ public class FamilyServiceImpl extends FamilyServiceGrpc.FamilyServiceImplBase {
     private final NodeInfo self;
     private final boolean isLeader;
 
-    // RAM storage
-    private final Map<Long, String> localStore = new ConcurrentHashMap<>();
+    // RAM storage (raw bytes, kept as received: no copy); sorted by id for SCAN
+    private final ConcurrentNavigableMap<Long, ByteString> localStore = new ConcurrentSkipListMap<>();
+
+    // Large values (StoreStream, or big files at startup) live on disk only
+    private final NavigableSet<Long> diskOnly = new ConcurrentSkipListSet<>();
+    private final int streamThresholdBytes = NodeConfig.getInt("streamThresholdBytes", 256 * 1024);
+    private final int chunkBytes = NodeConfig.getInt("chunkBytes", 64 * 1024);
 
     // Disk storage
     private final Path storageDir;
 
+    // load figures for GetStats (the leader's replica selection, see FollowerStats)
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicInteger keyCount = new AtomicInteger();   // skip list size() walks the list
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private static final byte[] PROBE_BYTES = new byte[512];
+
+    // <id>.txt starts with a header: HEADER_MAGIC, then the WriteVersion of the
+    // value; a file without it (written before the header) is the bare value
+    private static final int HEADER_MAGIC = 0x48564b01;
+    private static final int HEADER_BYTES = 12;
+
+    // writes of one id are applied one at a time; one older than the version
+    // on disk (a replayed hint) is skipped
+    private static final int WRITE_STRIPES = 256;
+    private final ReentrantLock[] writeLocks = new ReentrantLock[WRITE_STRIPES];
+    // EWMA of local write time, as Double bits (updated by CAS on every write)
+    private final AtomicLong writeLatencyNanos = new AtomicLong(Double.doubleToLongBits(0));
+
     public FamilyServiceImpl(NodeRegistry registry,
                              NodeInfo self,
                              boolean isLeader) {
@@ -31,6 +66,8 @@ public class FamilyServiceImpl extends FamilyServiceGrpc.FamilyServiceImplBase {
 
         registry.add(self);
 
+        for (int i = 0; i < WRITE_STRIPES; i++) writeLocks[i] = new ReentrantLock();
+
         this.storageDir = Paths.get(
                 "data",
                 self.getHost() + "_" + self.getPort()
@@ -64,43 +101,260 @@ public class FamilyServiceImpl extends FamilyServiceGrpc.FamilyServiceImplBase {
         responseObserver.onCompleted();
     }
 
-   
-    // SET (FOLLOWER ONLY)
+    // FAMILY (also the leader's liveness probe, see PeerHealth)
+    @Override
+    public void getFamily(Empty request,
+                          StreamObserver<FamilyView> responseObserver) {
+
+        responseObserver.onNext(
+                FamilyView.newBuilder()
+                        .addAllMembers(registry.snapshot())
+                        .build()
+        );
+        responseObserver.onCompleted();
+    }
+
+    // CHAT (broadcast only, SETs use Store)
     @Override
     public void receiveChat(ChatMessage request,
                             StreamObserver<Empty> responseObserver) {
 
-        if (isLeader) {
-            responseObserver.onNext(Empty.newBuilder().build());
-            responseObserver.onCompleted();
-            return;
+        responseObserver.onNext(Empty.newBuilder().build());
+        responseObserver.onCompleted();
+    }
+
+    // SET (FOLLOWER ONLY)
+    @Override
+    public void store(StoredMessage request,
+                      StreamObserver<StoreResult> responseObserver) {
+
+        boolean ok = !isLeader && storeLocal(request);
+
+        responseObserver.onNext(StoreResult.newBuilder().setOk(ok).build());
+        responseObserver.onCompleted();
+    }
+
+    // REPLICATION STREAM (FOLLOWER ONLY): frames from the leader's ReplicationLink,
+    // stored in order, one ack per frame
+    @Override
+    public StreamObserver<ReplicationFrame> replicationStream(StreamObserver<ReplicationAck> responseObserver) {
+
+        return new StreamObserver<>() {
+            @Override
+            public void onNext(ReplicationFrame frame) {
+                ReplicationAck.Builder ack = ReplicationAck.newBuilder().setSeq(frame.getSeq());
+                for (StoredMessage m : frame.getMessagesList()) {
+                    ack.addOk(!isLeader && storeLocal(m));
+                }
+                responseObserver.onNext(ack.build());
+            }
+
+            @Override
+            public void onError(Throwable t) {}
+
+            @Override
+            public void onCompleted() {
+                responseObserver.onCompleted();
+            }
+        };
+    }
+
+    // MSET (FOLLOWER ONLY): every key of the batch that belongs to this node
+    @Override
+    public void storeBatch(StoredBatch request,
+                           StreamObserver<BatchStoreResult> responseObserver) {
+
+        BatchStoreResult.Builder result = BatchStoreResult.newBuilder();
+
+        if (!isLeader) {
+            for (StoredMessage m : request.getMessagesList()) {
+                if (storeLocal(m)) {
+                    result.addStoredIds(m.getId());
+                }
+            }
         }
 
-        String[] parts = request.getText().split(" ", 3);
-        if (parts.length == 3 && parts[0].equals("SET")) {
+        responseObserver.onNext(result.build());
+        responseObserver.onCompleted();
+    }
 
-            long id = Long.parseLong(parts[1]);
-            String value = parts[2];
+    // a write from the leader; one older than what we have counts as stored
+    private boolean storeLocal(StoredMessage m) {
+        ReentrantLock lock = writeLock(m.getId());
+        lock.lock();
+        try {
+            return storeLocal(m.getId(), m.getValue(), m.getVersion());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock writeLock(long id) {
+        return writeLocks[(int) (HashRing.mix(id) & (WRITE_STRIPES - 1))];
+    }
+
+    private static boolean stale(long have, long version) {
+        return version != 0 && have > version;
+    }
+
+    private static ByteBuffer header(long version) {
+        return ByteBuffer.allocate(HEADER_BYTES).putInt(HEADER_MAGIC).putLong(version).flip();
+    }
+
+    // version in the file's header (-1 = no header)
+    private static long headerVersion(FileChannel file) throws IOException {
+        if (file.size() < HEADER_BYTES) return -1;
+        ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+        while (h.hasRemaining() && file.read(h, h.position()) >= 0) {}
+        h.flip();
+        return h.getInt() == HEADER_MAGIC ? h.getLong() : -1;
+    }
+
+    // where the value starts in the file
+    private static long valueOffset(FileChannel file) throws IOException {
+        return headerVersion(file) < 0 ? 0 : HEADER_BYTES;
+    }
+
+    private long diskVersion(long id) throws IOException {
+        try (FileChannel file = FileChannel.open(storageDir.resolve(id + ".txt"), StandardOpenOption.READ)) {
+            return headerVersion(file);
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    private boolean storeLocal(long id, ByteString value, long version) {
+        pendingWrites.incrementAndGet();
+        long start = System.nanoTime();
+
+        try (FileChannel file = FileChannel.open(
+                storageDir.resolve(id + ".txt"),
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE)) {
+
+            if (stale(headerVersion(file), version)) return true;
 
             // RAM
-            localStore.put(id, value);
+            storedBytes.addAndGet(value.size() - storedSize(id));
+            boolean inRam = localStore.put(id, value) != null;
+            boolean onDisk = diskOnly.remove(id);
+            if (!inRam && !onDisk) keyCount.incrementAndGet();
 
-            // DISK
-            try {
-                Files.writeString(
-                        storageDir.resolve(id + ".txt"),
-                        value,
-                        StandardCharsets.UTF_8,
-                        StandardOpenOption.CREATE,
-                        StandardOpenOption.TRUNCATE_EXISTING
-                );
-            } catch (IOException e) {
-                e.printStackTrace();
+            // DISK: the header, then straight from the message's buffers
+            file.truncate(0);
+            ByteBuffer h = header(version);
+            while (h.hasRemaining()) file.write(h);
+            for (ByteBuffer b : value.asReadOnlyByteBufferList()) {
+                while (b.hasRemaining()) file.write(b);
             }
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            pendingWrites.decrementAndGet();
+            recordWrite(System.nanoTime() - start);
         }
+    }
 
-        responseObserver.onNext(Empty.newBuilder().build());
-        responseObserver.onCompleted();
+    // size of what we hold for id now (0 = nothing)
+    private long storedSize(long id) {
+        ByteString val = localStore.get(id);
+        if (val != null) return val.size();
+        if (!diskOnly.contains(id)) return 0;
+        try (FileChannel file = FileChannel.open(storageDir.resolve(id + ".txt"), StandardOpenOption.READ)) {
+            return file.size() - valueOffset(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void recordWrite(long nanos) {
+        writeLatencyNanos.updateAndGet(bits -> {
+            double old = Double.longBitsToDouble(bits);
+            return Double.doubleToLongBits(old == 0 ? nanos : 0.2 * nanos + 0.8 * old);
+        });
+    }
+
+    // LARGE SET (FOLLOWER ONLY): chunks go to a temp file as they arrive,
+    // renamed to <id>.txt when the leader closes the stream
+    @Override
+    public StreamObserver<ValueChunk> storeStream(StreamObserver<StoreResult> responseObserver) {
+
+        return new StreamObserver<>() {
+            private long id;
+            private long version;
+            private Path part;
+            private FileChannel file;
+            private boolean failed = isLeader;
+
+            @Override
+            public void onNext(ValueChunk chunk) {
+                if (failed) return;
+                try {
+                    if (file == null) {
+                        id = chunk.getId();
+                        version = chunk.getVersion();
+                        part = Files.createTempFile(storageDir, id + "-", ".part");
+                        file = FileChannel.open(part, StandardOpenOption.WRITE);
+                        ByteBuffer h = header(version);
+                        while (h.hasRemaining()) file.write(h);
+                    }
+                    for (ByteBuffer b : chunk.getData().asReadOnlyByteBufferList()) {
+                        while (b.hasRemaining()) file.write(b);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    failed = true;
+                    discard();
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                discard();
+            }
+
+            @Override
+            public void onCompleted() {
+                boolean ok = !failed && file != null;
+                if (ok) {
+                    ReentrantLock lock = writeLock(id);
+                    lock.lock();
+                    try {
+                        if (stale(diskVersion(id), version)) {
+                            discard();
+                        } else {
+                            storedBytes.addAndGet(file.size() - HEADER_BYTES - storedSize(id));
+                            file.close();
+                            Files.move(part, storageDir.resolve(id + ".txt"),
+                                    StandardCopyOption.REPLACE_EXISTING,
+                                    StandardCopyOption.ATOMIC_MOVE);
+                            boolean added = diskOnly.add(id);
+                            boolean inRam = localStore.remove(id) != null;
+                            if (added && !inRam) keyCount.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        discard();
+                        ok = false;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+
+                responseObserver.onNext(StoreResult.newBuilder().setOk(ok).build());
+                responseObserver.onCompleted();
+            }
+
+            private void discard() {
+                try {
+                    if (file != null) file.close();
+                    if (part != null) Files.deleteIfExists(part);
+                } catch (IOException ignored) {}
+            }
+        };
     }
 
     // GET
@@ -108,18 +362,268 @@ public class FamilyServiceImpl extends FamilyServiceGrpc.FamilyServiceImplBase {
     public void getValue(GetRequest request,
                          StreamObserver<GetResponse> responseObserver) {
 
-        String val = localStore.get(request.getId());
+        ByteString val = localStore.get(request.getId());
 
-        responseObserver.onNext(
-                val != null
-                        ? GetResponse.newBuilder()
-                            .setFound(true)
-                            .setValue(val)
-                            .build()
-                        : GetResponse.newBuilder()
-                            .setFound(false)
-                            .build()
-        );
+        GetResponse resp;
+        if (val != null) {
+            resp = GetResponse.newBuilder()
+                    .setFound(true)
+                    .setValue(val.toStringUtf8())
+                    .build();
+        } else if (diskOnly.contains(request.getId())) {
+            // too big for one message, the leader switches to ReadStream
+            resp = GetResponse.newBuilder()
+                    .setFound(true)
+                    .setChunked(true)
+                    .build();
+        } else {
+            resp = GetResponse.newBuilder()
+                    .setFound(false)
+                    .build();
+        }
+
+        responseObserver.onNext(resp);
+        responseObserver.onCompleted();
+    }
+
+    // GET (bytes)
+    @Override
+    public void retrieve(GetRequest request,
+                         StreamObserver<RetrieveResponse> responseObserver) {
+
+        ByteString val = localStore.get(request.getId());
+
+        RetrieveResponse resp;
+        if (val != null) {
+            resp = RetrieveResponse.newBuilder()
+                    .setFound(true)
+                    .setValue(val)
+                    .build();
+        } else if (diskOnly.contains(request.getId())) {
+            resp = RetrieveResponse.newBuilder()
+                    .setFound(true)
+                    .setChunked(true)
+                    .build();
+        } else {
+            resp = RetrieveResponse.newBuilder()
+                    .setFound(false)
+                    .build();
+        }
+
+        responseObserver.onNext(resp);
+        responseObserver.onCompleted();
+    }
+
+    // LARGE GET: file read chunk by chunk, only as fast as the leader consumes
+    // (no chunks at all = not found)
+    @Override
+    public void readStream(GetRequest request,
+                           StreamObserver<ValueChunk> responseObserver) {
+
+        long id = request.getId();
+
+        ByteString val = localStore.get(id);
+        if (val != null) {
+            responseObserver.onNext(ValueChunk.newBuilder()
+                    .setId(id)
+                    .setTotalSize(val.size())
+                    .setData(val)
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+
+        FileChannel file;
+        long size;
+        try {
+            if (!diskOnly.contains(id)) throw new NoSuchFileException(id + ".txt");
+            file = FileChannel.open(storageDir.resolve(id + ".txt"), StandardOpenOption.READ);
+            long offset = valueOffset(file);
+            file.position(offset);
+            size = file.size() - offset;
+        } catch (IOException e) {
+            responseObserver.onCompleted();
+            return;
+        }
+
+        ServerCallStreamObserver<ValueChunk> out =
+                (ServerCallStreamObserver<ValueChunk>) responseObserver;
+
+        Runnable pump = new Runnable() {
+            private long sent = 0;
+            private boolean done = false;
+
+            @Override
+            public void run() {
+                try {
+                    while (!done && out.isReady()) {
+                        int n = (int) Math.min(chunkBytes, size - sent);
+                        ByteBuffer buf = ByteBuffer.allocate(n);
+                        while (buf.hasRemaining() && file.read(buf) >= 0) {}
+                        buf.flip();
+
+                        ValueChunk.Builder chunk = ValueChunk.newBuilder()
+                                .setData(UnsafeByteOperations.unsafeWrap(buf));
+                        if (sent == 0) chunk.setId(id).setTotalSize(size);
+
+                        out.onNext(chunk.build());
+                        sent += n;
+
+                        if (sent >= size) {
+                            done = true;
+                            file.close();
+                            out.onCompleted();
+                        }
+                    }
+                } catch (IOException e) {
+                    done = true;
+                    try { file.close(); } catch (IOException ignored) {}
+                    out.onError(Status.INTERNAL.withCause(e).asRuntimeException());
+                }
+            }
+        };
+
+        out.setOnCancelHandler(() -> {
+            try { file.close(); } catch (IOException ignored) {}
+        });
+        out.setOnReadyHandler(pump);
+        pump.run();
+    }
+
+    // MGET: found ids only, the leader falls back to other holders for the rest
+    @Override
+    public void retrieveBatch(IdBatch request,
+                              StreamObserver<StoredBatch> responseObserver) {
+
+        StoredBatch.Builder batch = StoredBatch.newBuilder();
+
+        for (long id : request.getIdsList()) {
+            ByteString val = localStore.get(id);
+            if (val != null) {
+                batch.addMessages(StoredMessage.newBuilder()
+                        .setId(id)
+                        .setValue(val));
+            }
+        }
+
+        responseObserver.onNext(batch.build());
+        responseObserver.onCompleted();
+    }
+
+    // IDS (read by the leader once per follower, see KeyFilter)
+    @Override
+    public void listIds(Empty request,
+                        StreamObserver<IdBatch> responseObserver) {
+
+        IdBatch.Builder batch = IdBatch.newBuilder();
+        for (Set<Long> ids : List.of(localStore.keySet(), diskOnly)) {
+            for (long id : ids) {
+                batch.addIds(id);
+                if (batch.getIdsCount() == 1024) {
+                    responseObserver.onNext(batch.build());
+                    batch.clear();
+                }
+            }
+        }
+        if (batch.getIdsCount() > 0) responseObserver.onNext(batch.build());
+        responseObserver.onCompleted();
+    }
+
+    // SCAN: RAM and disk-only ids of the range merged in order; large values
+    // go out as chunked entries, paced by the stream's flow control
+    @Override
+    public void scan(ScanRequest request,
+                     StreamObserver<ScanEntry> responseObserver) {
+
+        if (request.getFrom() > request.getTo()) {
+            responseObserver.onCompleted();
+            return;
+        }
+
+        Iterator<Map.Entry<Long, ByteString>> ram =
+                localStore.subMap(request.getFrom(), true, request.getTo(), true).entrySet().iterator();
+        Iterator<Long> disk =
+                diskOnly.subSet(request.getFrom(), true, request.getTo(), true).iterator();
+        int limit = request.getLimit() > 0 ? request.getLimit() : Integer.MAX_VALUE;
+
+        ServerCallStreamObserver<ScanEntry> out =
+                (ServerCallStreamObserver<ScanEntry>) responseObserver;
+
+        Runnable pump = new Runnable() {
+            private Map.Entry<Long, ByteString> nextRam = ram.hasNext() ? ram.next() : null;
+            private Long nextDisk = disk.hasNext() ? disk.next() : null;
+            private int sent = 0;
+            private boolean done = false;
+
+            @Override
+            public synchronized void run() {
+                while (!done && out.isReady()) {
+                    if (sent >= limit || (nextRam == null && nextDisk == null)) {
+                        done = true;
+                        out.onCompleted();
+                        return;
+                    }
+
+                    ScanEntry.Builder e = ScanEntry.newBuilder();
+                    if (nextDisk == null || (nextRam != null && nextRam.getKey() <= nextDisk)) {
+                        e.setId(nextRam.getKey()).setValue(nextRam.getValue());
+                        if (nextDisk != null && nextDisk.equals(nextRam.getKey())) {
+                            nextDisk = disk.hasNext() ? disk.next() : null;
+                        }
+                        nextRam = ram.hasNext() ? ram.next() : null;
+                    } else {
+                        e.setId(nextDisk).setChunked(true);
+                        nextDisk = disk.hasNext() ? disk.next() : null;
+                    }
+                    out.onNext(e.build());
+                    sent++;
+                }
+            }
+        };
+
+        out.setOnReadyHandler(pump);
+        pump.run();
+    }
+
+    // PROBE (PeerHealth re-admission): goes through this node's disk like a
+    // SET does, so a follower ejected for a stalled disk stays slow here too
+    @Override
+    public void probe(Empty request,
+                      StreamObserver<Empty> responseObserver) {
+
+        Path p = storageDir.resolve("probe.tmp");
+        try {
+            Files.write(p, PROBE_BYTES);
+            Files.readAllBytes(p);
+        } catch (IOException e) {
+            responseObserver.onError(Status.INTERNAL
+                    .withDescription("probe: " + e.getMessage())
+                    .asRuntimeException());
+            return;
+        }
+        responseObserver.onNext(Empty.getDefaultInstance());
+        responseObserver.onCompleted();
+    }
+
+    // STATS (polled by the leader, see FollowerStats)
+    @Override
+    public void getStats(Empty request,
+                         StreamObserver<NodeStats> responseObserver) {
+
+        long free = 0;
+        try {
+            free = Files.getFileStore(storageDir).getUsableSpace();
+        } catch (IOException ignored) {}
+
+        long latency = (long) (Double.longBitsToDouble(writeLatencyNanos.get()) / 1_000);
+
+        responseObserver.onNext(NodeStats.newBuilder()
+                .setKeyCount(keyCount.get())
+                .setStoredBytes(storedBytes.get())
+                .setPendingWrites(pendingWrites.get())
+                .setWriteLatencyMicros(latency)
+                .setFreeDiskBytes(free)
+                .build());
         responseObserver.onCompleted();
     }
 
@@ -128,14 +632,21 @@ public class FamilyServiceImpl extends FamilyServiceGrpc.FamilyServiceImplBase {
     private void loadFromDisk() {
         try {
             Files.list(storageDir).forEach(p -> {
-                try {
+                try (FileChannel file = FileChannel.open(p, StandardOpenOption.READ)) {
                     long id = Long.parseLong(
                             p.getFileName().toString().replace(".txt", "")
                     );
-                    localStore.put(
-                            id,
-                            Files.readString(p, StandardCharsets.UTF_8)
-                    );
+                    long offset = valueOffset(file);
+                    long size = file.size() - offset;
+                    storedBytes.addAndGet(size);
+                    keyCount.incrementAndGet();
+                    if (size > streamThresholdBytes) {
+                        diskOnly.add(id);
+                        return;
+                    }
+                    ByteBuffer buf = ByteBuffer.allocate((int) size);
+                    while (buf.hasRemaining() && file.read(buf, offset + buf.position()) >= 0) {}
+                    localStore.put(id, UnsafeByteOperations.unsafeWrap(buf.array()));
                 } catch (Exception ignored) {}
             });
             System.out.println("📂 Diskten veri yüklendi");
@@ -151,7 +662,7 @@ public class FamilyServiceImpl extends FamilyServiceGrpc.FamilyServiceImplBase {
                     System.out.println("---- NODE ----");
                     System.out.println("Self: " + self.getHost() + ":" + self.getPort());
                     System.out.println("Leader: " + isLeader);
-                    System.out.println("Local keys: " + localStore.size());
+                    System.out.println("Local keys: " + keyCount.get());
                 }, 5, 10, TimeUnit.SECONDS);
     }
 }
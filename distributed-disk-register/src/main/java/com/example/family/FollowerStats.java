@@ -0,0 +1,140 @@
+package com.example.family;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import family.Empty;
+import family.NodeInfo;
+import family.NodeStats;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follower load as the leader sees it, and load-aware replica choice.
+ *
+ * Every followerStatsIntervalMs the leader asks each follower for its NodeStats
+ * (keys, bytes, pending local writes, write latency EWMA, free disk). A
+ * follower's score is its expected wait: latency (the leader's PeerHealth EWMA,
+ * else what the follower reports) times 1 + the calls the leader has in flight
+ * to it + its pending writes. One with less than minFreeDiskBytes free is last.
+ *
+ * replicaSelection=ring       the first `tolerance` followers of the ring order
+ * replicaSelection=loadAware  power of two choices among the first
+ *                             LOAD_AWARE_SPREAD * tolerance of the ring order:
+ *                             per replica two random ones, the lower score wins
+ *
+ * Keeping the choice to a few ring neighbours keeps placement bounded: a GET
+ * for an id the leader has no record of asks those first (spread()), and the
+ * other followers only when none of them has it.
+ */
+public final class FollowerStats {
+
+    public static final boolean LOAD_AWARE =
+            NodeConfig.getString("replicaSelection", "ring").equalsIgnoreCase("loadAware");
+
+    private static final int LOAD_AWARE_SPREAD = 2;
+    private static final long INTERVAL_MS = NodeConfig.getLong("followerStatsIntervalMs", 500);
+    private static final long MIN_FREE_BYTES = NodeConfig.getLong("minFreeDiskBytes", 64L * 1024 * 1024);
+
+    private static final Map<NodeInfo, NodeStats> stats = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "follower-stats");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private FollowerStats() {}
+
+    /** Polls every member of registry but self until the JVM exits. */
+    public static void start(NodeRegistry registry, NodeInfo self) {
+        poller.scheduleWithFixedDelay(() -> {
+            for (NodeInfo n : registry.snapshot()) {
+                if (!n.equals(self)) poll(n);
+            }
+        }, 0, INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void poll(NodeInfo n) {
+        try {
+            Futures.addCallback(
+                    Deadlines.get(PeerChannels.future(n)).getStats(Empty.getDefaultInstance()),
+                    new FutureCallback<NodeStats>() {
+                        @Override
+                        public void onSuccess(NodeStats s) {
+                            stats.put(n, s);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable t) {}
+                    },
+                    MoreExecutors.directExecutor());
+        } catch (RuntimeException ignored) {}
+    }
+
+    public static NodeStats get(NodeInfo n) {
+        return stats.get(n);
+    }
+
+    public static void forget(NodeInfo n) {
+        stats.remove(n);
+    }
+
+    /** Expected wait in nanos, lower is better. */
+    public static double score(NodeInfo n) {
+        NodeStats s = stats.get(n);
+        if (s != null && s.getFreeDiskBytes() > 0 && s.getFreeDiskBytes() < MIN_FREE_BYTES) {
+            return Double.MAX_VALUE;
+        }
+
+        double latency = PeerHealth.latencyNanos(n);
+        if (latency < 0) latency = s == null ? 0 : s.getWriteLatencyMicros() * 1_000.0;
+
+        int queue = PeerHealth.inFlight(n) + (s == null ? 0 : s.getPendingWrites());
+        return (latency + 1_000) * (1 + queue);
+    }
+
+    /** How many ring neighbours an id's replicas can be among. */
+    public static int spread(int tolerance) {
+        return LOAD_AWARE ? LOAD_AWARE_SPREAD * tolerance : tolerance;
+    }
+
+    /** order with the `k` chosen replicas first (the next one is the spare). */
+    public static List<NodeInfo> arrange(List<NodeInfo> order, int k) {
+        return LOAD_AWARE ? arrange(order, k, true) : order;
+    }
+
+    public static List<NodeInfo> arrange(List<NodeInfo> order, int k, boolean loadAware) {
+        int poolSize = Math.min(order.size(), LOAD_AWARE_SPREAD * k);
+        if (!loadAware || poolSize <= k) return order;
+
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        List<NodeInfo> pool = new ArrayList<>(order.subList(0, poolSize));
+        List<NodeInfo> out = new ArrayList<>(order.size());
+
+        while (out.size() < k) {
+            if (pool.size() == 1) {
+                out.add(pool.remove(0));
+                continue;
+            }
+            int a = rnd.nextInt(pool.size());
+            int b = rnd.nextInt(pool.size() - 1);
+            if (b >= a) b++;
+            out.add(pool.remove(score(pool.get(a)) <= score(pool.get(b)) ? a : b));
+        }
+
+        // the least loaded of the rest is the spare, then the ring order goes on
+        pool.sort(Comparator.comparingDouble(FollowerStats::score));
+        out.addAll(pool);
+        out.addAll(order.subList(poolSize, order.size()));
+        return out;
+    }
+}
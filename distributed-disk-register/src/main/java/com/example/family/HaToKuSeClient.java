@@ -7,14 +7,19 @@ import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Locale;
 import java.util.Random;
 
 /**
- * HaToKuSe TCP Client (text protocol)
+ * HaToKuSe TCP Client (text or binary protocol)
  *
  * Sends SET/GET commands over a persistent TCP connection.
  * Measures per-request round-trip time (from send to response read).
+ * With --pipeline=N up to N requests are written before their responses are read.
+ * With --protocol=binary the same workload goes over the length-prefixed
+ * binary protocol (BinaryProtocol, port 6667) so both can be compared.
  *
  * Protocol examples:
  *   SET 34 ISTANBUL\n
@@ -52,6 +57,12 @@ public class HaToKuSeClient {
         int readTimeoutMs = 15000;
         boolean reconnectOnFailure = true;
         int reconnectBackoffMs = 500;
+
+        // Requests kept in flight on the one connection (1 = wait for each reply)
+        int pipeline = 1;
+
+        // Protocol: text (port 6666) or binary length-prefixed frames (port 6667)
+        boolean binary = false;
     }
 
     public static void main(String[] args) throws Exception {
@@ -65,7 +76,8 @@ public class HaToKuSeClient {
                 cfg.host, cfg.port, cfg.durationMinutes, cfg.setRatio, cfg.keySpace);
         System.out.printf("Payload: min=%dB max=%dB | large=%dB every %d SETs%n",
                 cfg.minPayloadBytes, cfg.maxPayloadBytes, cfg.largePayloadBytes, cfg.largeEveryN);
-        System.out.printf("CSV: %s%n", cfg.csvPath);
+        System.out.printf("CSV: %s | pipeline=%d | protocol=%s%n",
+                cfg.csvPath, cfg.pipeline, cfg.binary ? "binary" : "text");
 
         // CSV header
         try (PrintWriter csv = new PrintWriter(new OutputStreamWriter(new FileOutputStream(cfg.csvPath, false), StandardCharsets.UTF_8))) {
@@ -83,69 +95,78 @@ public class HaToKuSeClient {
         long rttMax = Long.MIN_VALUE;
 
         Connection conn = null;
+        Deque<InFlight> inFlight = new ArrayDeque<>();
+        long nextReport = 1000;
         try {
             conn = Connection.connect(cfg);
 
-            while (System.nanoTime() < endAt) {
-                opCount++;
-
-                boolean doSet = rnd.nextDouble() < cfg.setRatio;
-                int key = rnd.nextInt(Math.max(1, cfg.keySpace));
-
-                String op;
-                String request;
-                int payloadBytes = 0;
-
-                if (doSet) {
-                    op = "SET";
-                    setCount++;
-
-                    boolean isLarge = (cfg.largeEveryN > 0) && (setCount % cfg.largeEveryN == 0);
-                    payloadBytes = isLarge
-                            ? cfg.largePayloadBytes
-                            : randomBetween(rnd, cfg.minPayloadBytes, cfg.maxPayloadBytes);
-
-                    String value = randomAscii(rnd, payloadBytes);
-                    request = "SET " + key + " " + value;
-                } else {
-                    op = "GET";
-                    request = "GET " + key;
-                }
-
-                String ts = TS_FMT.format(Instant.now());
+            while (System.nanoTime() < endAt || !inFlight.isEmpty()) {
+                try {
+                    // keep up to `pipeline` requests on the wire (1 = classic request/response)
+                    while (inFlight.size() < cfg.pipeline && System.nanoTime() < endAt) {
+                        opCount++;
+
+                        boolean doSet = rnd.nextDouble() < cfg.setRatio;
+                        int key = rnd.nextInt(Math.max(1, cfg.keySpace));
+
+                        String op;
+                        int payloadBytes = 0;
+                        byte[] value = null;
+
+                        if (doSet) {
+                            op = "SET";
+                            setCount++;
+
+                            boolean isLarge = (cfg.largeEveryN > 0) && (setCount % cfg.largeEveryN == 0);
+                            payloadBytes = isLarge
+                                    ? cfg.largePayloadBytes
+                                    : randomBetween(rnd, cfg.minPayloadBytes, cfg.maxPayloadBytes);
+
+                            value = randomAscii(rnd, payloadBytes);
+                        } else {
+                            op = "GET";
+                        }
+
+                        inFlight.add(new InFlight(op, key, payloadBytes,
+                                TS_FMT.format(Instant.now()), System.nanoTime()));
+                        if (value != null) conn.sendSet(key, value);
+                        else conn.sendGet(key);
+                    }
+                    conn.flush();
 
-                long startNs = System.nanoTime();
-                String response;
-                boolean ok;
+                    if (inFlight.isEmpty()) break;
 
-                try {
-                    response = conn.sendAndReadLine(request);
-                    long rttMs = (System.nanoTime() - startNs) / 1_000_000L;
+                    String response = conn.readResponse();
+                    InFlight req = inFlight.poll();
+                    long rttMs = (System.nanoTime() - req.startNs) / 1_000_000L;
 
-                    ok = response != null && response.startsWith("OK");
+                    boolean ok = response != null && response.startsWith("OK");
                     if (ok) okCount++; else errCount++;
 
                     rttSum += rttMs;
                     rttMin = Math.min(rttMin, rttMs);
                     rttMax = Math.max(rttMax, rttMs);
 
-                    appendCsv(cfg.csvPath, ts, op, key, payloadBytes, ok, rttMs, response);
+                    appendCsv(cfg.csvPath, req.ts, req.op, req.key, req.payloadBytes, ok, rttMs, response);
 
                     if (cfg.printEach) {
                         System.out.printf("%s | %s %d (%dB) -> %s | rtt=%dms%n",
-                                ts, op, key, payloadBytes, response, rttMs);
+                                req.ts, req.op, req.key, req.payloadBytes, response, rttMs);
                     }
 
                 } catch (IOException e) {
-                    // Record as ERROR and optionally reconnect
-                    long rttMs = (System.nanoTime() - startNs) / 1_000_000L;
-                    errCount++;
+                    // Record every request still on the wire as ERROR and optionally reconnect
                     String err = "ERROR " + e.getClass().getSimpleName() + ":" + safeMsg(e.getMessage());
-                    appendCsv(cfg.csvPath, ts, op, key, payloadBytes, false, rttMs, err);
-                    if (cfg.printEach) {
-                        System.out.printf("%s | %s %d (%dB) -> %s | rtt=%dms%n",
-                                ts, op, key, payloadBytes, err, rttMs);
+                    for (InFlight req : inFlight) {
+                        long rttMs = (System.nanoTime() - req.startNs) / 1_000_000L;
+                        errCount++;
+                        appendCsv(cfg.csvPath, req.ts, req.op, req.key, req.payloadBytes, false, rttMs, err);
+                        if (cfg.printEach) {
+                            System.out.printf("%s | %s %d (%dB) -> %s | rtt=%dms%n",
+                                    req.ts, req.op, req.key, req.payloadBytes, err, rttMs);
+                        }
                     }
+                    inFlight.clear();
 
                     if (cfg.reconnectOnFailure) {
                         closeQuietly(conn);
@@ -160,9 +181,10 @@ public class HaToKuSeClient {
                     Thread.sleep(cfg.sleepMsBetweenOps);
                 }
 
-                // Periodic summary every 1000 ops
-                if (opCount % 1000 == 0) {
-                    long avg = (opCount == 0) ? 0 : (rttSum / Math.max(1, (okCount + errCount)));
+                // Periodic summary every 1000 completed ops
+                if (okCount + errCount >= nextReport) {
+                    nextReport += 1000;
+                    long avg = rttSum / Math.max(1, (okCount + errCount));
                     System.out.printf("ops=%d (SET=%d) OK=%d ERROR=%d | rtt(ms) min=%d avg=%d max=%d%n",
                             opCount, setCount, okCount, errCount,
                             (rttMin == Long.MAX_VALUE ? 0 : rttMin), avg,
@@ -219,16 +241,33 @@ public class HaToKuSeClient {
         return minInclusive + rnd.nextInt(maxInclusive - minInclusive + 1);
     }
 
-    /** Generates an ASCII string of EXACT byte length in UTF-8 (ASCII subset). */
-    private static String randomAscii(Random rnd, int bytes) {
-        if (bytes <= 0) return "";
-        char[] chars = new char[bytes];
+    /** Generates ASCII bytes of EXACT length (same bytes in UTF-8, sent as-is by both protocols). */
+    private static byte[] randomAscii(Random rnd, int bytes) {
+        if (bytes <= 0) return new byte[0];
+        byte[] chars = new byte[bytes];
         for (int i = 0; i < bytes; i++) {
             // printable ASCII excluding spaces? keep it simple: [A-Z0-9]
             int r = rnd.nextInt(36);
-            chars[i] = (r < 10) ? (char)('0' + r) : (char)('A' + (r - 10));
+            chars[i] = (byte) ((r < 10) ? ('0' + r) : ('A' + (r - 10)));
+        }
+        return chars;
+    }
+
+    /** A request written to the socket whose response has not been read yet. */
+    private static final class InFlight {
+        final String op;
+        final int key;
+        final int payloadBytes;
+        final String ts;
+        final long startNs;
+
+        InFlight(String op, int key, int payloadBytes, String ts, long startNs) {
+            this.op = op;
+            this.key = key;
+            this.payloadBytes = payloadBytes;
+            this.ts = ts;
+            this.startNs = startNs;
         }
-        return new String(chars);
     }
 
     private static void closeQuietly(Connection c) {
@@ -238,46 +277,98 @@ public class HaToKuSeClient {
 
     private static final class Connection implements Closeable {
         private final Socket socket;
-        private final BufferedWriter out;
-        private final BufferedReader in;
+        private final boolean binary;
+        private final DataOutputStream out;
+        private final BufferedReader textIn;   // text protocol replies
+        private final DataInputStream binIn;   // binary protocol replies
 
-        private Connection(Socket socket, BufferedWriter out, BufferedReader in) {
+        private Connection(Socket socket, boolean binary) throws IOException {
             this.socket = socket;
-            this.out = out;
-            this.in = in;
+            this.binary = binary;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            if (binary) {
+                this.textIn = null;
+                this.binIn = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            } else {
+                this.textIn = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                this.binIn = null;
+            }
         }
 
         static Connection connect(Config cfg) throws IOException {
             Socket s = new Socket();
             s.connect(new InetSocketAddress(cfg.host, cfg.port), cfg.connectTimeoutMs);
             s.setSoTimeout(cfg.readTimeoutMs);
-            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
-            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
-            return new Connection(s, out, in);
+            s.setTcpNoDelay(true);
+            return new Connection(s, cfg.binary);
+        }
+
+        void sendSet(int key, byte[] value) throws IOException {
+            if (binary) {
+                sendFrame(BinaryProtocol.OP_SET, key, value);
+            } else {
+                out.write(("SET " + key + " ").getBytes(StandardCharsets.US_ASCII));
+                out.write(value);
+                out.write('\n');
+            }
+        }
+
+        void sendGet(int key) throws IOException {
+            if (binary) {
+                sendFrame(BinaryProtocol.OP_GET, key, new byte[0]);
+            } else {
+                out.write(("GET " + key + "\n").getBytes(StandardCharsets.US_ASCII));
+            }
         }
 
-        String sendAndReadLine(String line) throws IOException {
-            out.write(line);
-            out.write("\n");
+        private void sendFrame(byte op, long id, byte[] value) throws IOException {
+            out.writeByte(op);
+            out.writeLong(id);
+            out.writeInt(value.length);
+            out.write(value);
+        }
+
+        void flush() throws IOException {
             out.flush();
-            String resp = in.readLine();
-            if (resp == null) throw new EOFException("server closed connection");
-            return resp;
+        }
+
+        /** One reply; binary replies are rendered like text ones (value shown as its size). */
+        String readResponse() throws IOException {
+            if (!binary) {
+                String resp = textIn.readLine();
+                if (resp == null) throw new EOFException("server closed connection");
+                return resp;
+            }
+
+            byte status = binIn.readByte();
+            long id = binIn.readLong();
+            int len = binIn.readInt();
+            binIn.skipNBytes(len);
+
+            switch (status) {
+                case BinaryProtocol.STATUS_OK: return "OK";
+                case BinaryProtocol.STATUS_VALUE: return "VALUE " + id + " <" + len + "B>";
+                case BinaryProtocol.STATUS_NOT_FOUND: return "NOT_FOUND";
+                case BinaryProtocol.STATUS_BUSY: return "BUSY";
+                default: return "ERROR";
+            }
         }
 
         @Override
         public void close() throws IOException {
             try { out.close(); } catch (IOException ignored) {}
-            try { in.close(); } catch (IOException ignored) {}
+            try { if (textIn != null) textIn.close(); } catch (IOException ignored) {}
+            try { if (binIn != null) binIn.close(); } catch (IOException ignored) {}
             socket.close();
         }
     }
 
     private static Config parseArgs(String[] args) {
         Config c = new Config();
+        boolean portSet = false;
         for (String a : args) {
             if (a.startsWith("--host=")) c.host = a.substring("--host=".length());
-            else if (a.startsWith("--port=")) c.port = Integer.parseInt(a.substring("--port=".length()));
+            else if (a.startsWith("--port=")) { c.port = Integer.parseInt(a.substring("--port=".length())); portSet = true; }
             else if (a.startsWith("--durationMinutes=")) c.durationMinutes = Integer.parseInt(a.substring("--durationMinutes=".length()));
             else if (a.startsWith("--setRatio=")) c.setRatio = Double.parseDouble(a.substring("--setRatio=".length()));
             else if (a.startsWith("--keySpace=")) c.keySpace = Integer.parseInt(a.substring("--keySpace=".length()));
@@ -292,12 +383,16 @@ public class HaToKuSeClient {
             else if (a.startsWith("--readTimeoutMs=")) c.readTimeoutMs = Integer.parseInt(a.substring("--readTimeoutMs=".length()));
             else if (a.equals("--noReconnect")) c.reconnectOnFailure = false;
             else if (a.startsWith("--reconnectBackoffMs=")) c.reconnectBackoffMs = Integer.parseInt(a.substring("--reconnectBackoffMs=".length()));
+            else if (a.startsWith("--pipeline=")) c.pipeline = Integer.parseInt(a.substring("--pipeline=".length()));
+            else if (a.startsWith("--protocol=")) c.binary = a.substring("--protocol=".length()).equalsIgnoreCase("binary");
         }
         // sanity
         if (c.setRatio < 0) c.setRatio = 0;
         if (c.setRatio > 1) c.setRatio = 1;
         if (c.durationMinutes < 1) c.durationMinutes = 1;
         if (c.keySpace < 1) c.keySpace = 1;
+        if (c.pipeline < 1) c.pipeline = 1;
+        if (c.binary && !portSet) c.port = 6667;
         return c;
     }
 }
@@ -0,0 +1,101 @@
+package com.example.family;
+
+import family.NodeInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent-hash ring over the family members, `vnodes` points per node.
+ *
+ * The replicas of an id are the first distinct nodes clockwise from hash(id):
+ * computed from the membership alone (no table, O(log points) to find the
+ * start), the same on every call, and when a node joins only the ids that now
+ * fall on its points move to it (about 1/N of them). Virtual nodes spread every
+ * member over the whole ring, so ids and moved ids are shared out evenly.
+ *
+ * The ring is rebuilt on membership changes and read without locks.
+ */
+public final class HashRing {
+
+    private final int vnodes;
+    private volatile NavigableMap<Long, NodeInfo> points = new TreeMap<>();
+    private volatile int members = 0;
+
+    public HashRing(int vnodes) {
+        this.vnodes = Math.max(1, vnodes);
+    }
+
+    public synchronized void add(NodeInfo n) {
+        TreeMap<Long, NodeInfo> next = new TreeMap<>(points);
+        for (int i = 0; i < vnodes; i++) {
+            next.putIfAbsent(hash(n, i), n);
+        }
+        points = next;
+        members = (int) next.values().stream().distinct().count();
+    }
+
+    public synchronized void remove(NodeInfo n) {
+        TreeMap<Long, NodeInfo> next = new TreeMap<>(points);
+        next.values().removeIf(n::equals);
+        points = next;
+        members = (int) next.values().stream().distinct().count();
+    }
+
+    /** Every member once, in the order the ring gives them for id. */
+    public List<NodeInfo> walk(long id) {
+        return walk(id, Integer.MAX_VALUE);
+    }
+
+    /** The first `max` distinct members clockwise from id. */
+    public List<NodeInfo> walk(long id, int max) {
+        NavigableMap<Long, NodeInfo> ring = points;
+        List<NodeInfo> order = new ArrayList<>();
+        if (ring.isEmpty()) return order;
+
+        // stop as soon as every member was seen, not after all points
+        max = Math.min(max, members);
+        long h = mix(id);
+        collect(ring.tailMap(h, true).values(), order, max);
+        collect(ring.headMap(h, false).values(), order, max);
+        return order;
+    }
+
+    private static void collect(Collection<NodeInfo> nodes, List<NodeInfo> order, int max) {
+        Iterator<NodeInfo> it = nodes.iterator();
+        while (order.size() < max && it.hasNext()) {
+            NodeInfo n = it.next();
+            if (!order.contains(n)) order.add(n);
+        }
+    }
+
+    public int points() {
+        return points.size();
+    }
+
+    // FNV-1a over "host:port#i", then the same finalizer as ids
+    private static long hash(NodeInfo n, int i) {
+        byte[] key = (n.getHost() + ":" + n.getPort() + "#" + i).getBytes(StandardCharsets.UTF_8);
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    // MurmurHash3 fmix64: consecutive ids land all over the ring
+    static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
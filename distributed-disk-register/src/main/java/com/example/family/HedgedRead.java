@@ -0,0 +1,208 @@
+package com.example.family;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import family.GetRequest;
+import family.NodeInfo;
+import family.RetrieveResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * GET from several holders of an id: the first one that has it answers.
+ *
+ * The holders are asked in the order given (ReadRanking's); a holder that fails or does not have the id
+ * hands over to the next one at once. On top of that:
+ *
+ * hedgeReads=off      nothing else: one holder at a time (default)
+ * hedgeReads=delayed  when the first holder has not answered within the
+ *                     hedgeReadPercentile of recent Retrieve latencies, the next
+ *                     one is asked too
+ * hedgeReads=all      all holders at once
+ *
+ * The first found answer wins and the calls still running are cancelled.
+ * Delayed hedges are paid from a budget like Hedging's (hedgeReadBudgetPercent
+ * of all GETs, at most hedgeReadBudgetBurst kept).
+ *
+ * Counters: reads.hedged, reads.hedgeWon, reads.hedgeThrottled.
+ */
+public final class HedgedRead {
+
+    public enum Mode { OFF, DELAYED, ALL }
+
+    public static final Mode MODE = parseMode(NodeConfig.getString("hedgeReads", "off"));
+
+    private static final double PERCENTILE = NodeConfig.getDouble("hedgeReadPercentile", 95);
+    private static final double TOKENS_PER_GET = NodeConfig.getDouble("hedgeReadBudgetPercent", 50) / 100.0;
+    private static final double MAX_TOKENS = NodeConfig.getDouble("hedgeReadBudgetBurst", 10);
+
+    // below this many samples the percentile means little: no delayed hedges yet
+    private static final int MIN_SAMPLES = 100;
+
+    private static final LatencyWindow latency = new LatencyWindow(1024);
+    private static final TokenBudget budget = new TokenBudget(TOKENS_PER_GET, MAX_TOKENS);
+
+    private HedgedRead() {}
+
+    private static Mode parseMode(String s) {
+        try {
+            return Mode.valueOf(s.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("WARNING: bad value for hedgeReads, using default=off");
+            return Mode.OFF;
+        }
+    }
+
+    /** The holder that answered and its answer (found, maybe chunked). */
+    public static final class Found {
+        public final NodeInfo node;
+        public final RetrieveResponse response;
+
+        Found(NodeInfo node, RetrieveResponse response) {
+            this.node = node;
+            this.response = response;
+        }
+    }
+
+    /** retrieve() result when every holder answered that it does not have the id. */
+    public static final Found NONE = new Found(null, RetrieveResponse.getDefaultInstance());
+
+    /** First of holders that has id; NONE when none has it, null when one that failed might. */
+    public static Found retrieve(List<NodeInfo> holders, long id) {
+        return retrieve(holders, id, MODE);
+    }
+
+    public static Found retrieve(List<NodeInfo> holders, long id, Mode mode) {
+        if (holders.isEmpty()) return null;
+
+        earn();
+        State state = new State(holders, GetRequest.newBuilder().setId(id).build());
+
+        if (mode == Mode.ALL) {
+            for (int i = 0; i < holders.size(); i++) state.next(false);
+        } else {
+            state.next(false);
+        }
+
+        try {
+            if (mode == Mode.DELAYED && holders.size() > 1) {
+                long delay = latency.percentile(PERCENTILE, MIN_SAMPLES);
+                if (delay >= 0) {
+                    try {
+                        return state.done.get(delay, TimeUnit.NANOSECONDS);
+                    } catch (TimeoutException e) {
+                        if (tryAcquire()) state.next(true);
+                    }
+                }
+            }
+            return state.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        } finally {
+            state.cancelRest();
+        }
+    }
+
+    private static final class State {
+
+        final List<NodeInfo> holders;
+        final GetRequest req;
+        final CompletableFuture<Found> done = new CompletableFuture<>();
+        final List<ListenableFuture<RetrieveResponse>> running = new ArrayList<>();
+        int next = 0;
+        int outstanding = 0;
+        boolean failed = false;
+
+        State(List<NodeInfo> holders, GetRequest req) {
+            this.holders = holders;
+            this.req = req;
+        }
+
+        // asks the next holder; `hedge` = on top of one still running
+        void next(boolean hedge) {
+            NodeInfo n;
+            synchronized (this) {
+                if (done.isDone() || next >= holders.size()) {
+                    if (outstanding == 0) done.complete(failed ? null : NONE);
+                    return;
+                }
+                n = holders.get(next++);
+                outstanding++;
+            }
+            if (hedge) LeaderMetrics.increment("reads.hedged");
+
+            ReadRanking.begin(n);
+            long start = System.nanoTime();
+            ListenableFuture<RetrieveResponse> f;
+            try {
+                f = PeerHealth.track(n,
+                        Deadlines.get(PeerChannels.future(n)).retrieve(req),
+                        Deadlines.GET_MS);
+            } catch (RuntimeException e) {
+                f = Futures.immediateFailedFuture(e);
+            }
+            synchronized (this) {
+                running.add(f);
+                if (done.isDone()) f.cancel(true);
+            }
+
+            Futures.addCallback(f, new FutureCallback<RetrieveResponse>() {
+                @Override
+                public void onSuccess(RetrieveResponse resp) {
+                    long nanos = System.nanoTime() - start;
+                    latency.record(nanos);
+                    ReadRanking.end(n, nanos);
+                    if (resp.getFound() && done.complete(new Found(n, resp))) {
+                        if (hedge) LeaderMetrics.increment("reads.hedgeWon");
+                        return;
+                    }
+                    handOver(false);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    ReadRanking.failed(n, t instanceof CancellationException);
+                    handOver(true);
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        // a holder had nothing: the next one takes over
+        private void handOver(boolean failure) {
+            synchronized (this) {
+                outstanding--;
+                if (failure) failed = true;
+            }
+            next(false);
+        }
+
+        synchronized void cancelRest() {
+            for (ListenableFuture<RetrieveResponse> f : running) {
+                if (!f.isDone()) f.cancel(true);
+            }
+        }
+    }
+
+    private static void earn() {
+        budget.earn();
+    }
+
+    private static boolean tryAcquire() {
+        if (!budget.tryAcquire()) {
+            LeaderMetrics.increment("reads.hedgeThrottled");
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.family;
+
+import com.google.protobuf.ByteString;
+import family.*;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * GET latency with one stalled follower: hedgeReads off vs. delayed vs. all.
+ *
+ * Starts `followers` in-process followers that have every id; follower 0 never
+ * answers a Retrieve (its calls run into getDeadlineMs). Each id's holders are
+ * the first `tolerance` followers of its ring order, as replicateSet would
+ * record them. `threads` callers then GET random ids for `seconds` per mode
+ * through HedgedRead, the same path readValue uses.
+ *
+ *   --followers=3 --tolerance=2 --threads=16 --seconds=10
+ *   -DgetDeadlineMs=... -DhedgeReadBudgetPercent=... apply as in the leader
+ */
+public class HedgedReadBench {
+
+    private static final class Config {
+        int followers = 3;
+        int tolerance = 2;
+        int threads = 16;
+        int seconds = 10;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config cfg = parseArgs(args);
+
+        NodeInfo self = NodeInfo.newBuilder().setHost("127.0.0.1").setPort(0).build();
+        NodeRegistry registry = new NodeRegistry();
+        registry.addListener(PeerChannels.registryListener(self));
+
+        ByteString value = ByteString.copyFromUtf8("A".repeat(100));
+
+        List<Server> servers = new ArrayList<>();
+        for (int i = 0; i < cfg.followers; i++) {
+            Server s = ServerBuilder.forPort(0).addService(new Follower(i == 0, value)).build().start();
+            servers.add(s);
+            registry.add(NodeInfo.newBuilder().setHost("127.0.0.1").setPort(s.getPort()).build());
+        }
+
+        System.out.printf("HedgedReadBench | followers=%d (one stalled) | tolerance=%d | threads=%d | %ds per run | getDeadlineMs=%d%n",
+                cfg.followers, cfg.tolerance, cfg.threads, cfg.seconds, Deadlines.GET_MS);
+        System.out.println("hedgeReads,gets_per_sec,p50_us,p99_us,p999_us,misses");
+
+        try {
+            for (int round = 0; round < 2; round++) {
+                boolean print = round == 1;   // first round is warm-up
+                for (HedgedRead.Mode mode : HedgedRead.Mode.values()) {
+                    run(mode, cfg, registry, print);
+                }
+            }
+            System.out.println("# " + LeaderMetrics.render());
+        } finally {
+            for (Server s : servers) s.shutdownNow();
+        }
+    }
+
+    private static void run(HedgedRead.Mode mode,
+                            Config cfg,
+                            NodeRegistry registry,
+                            boolean print) throws InterruptedException {
+
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch finished = new CountDownLatch(cfg.threads);
+        List<long[]> perThread = new ArrayList<>();
+        long[] misses = new long[cfg.threads];
+
+        for (int t = 0; t < cfg.threads; t++) {
+            long[] lat = new long[1 << 19];
+            perThread.add(lat);
+            int me = t;
+            Thread th = new Thread(() -> {
+                int count = 0;
+                while (!stop.get()) {
+                    long id = ThreadLocalRandom.current().nextLong(1, 1_000_000);
+                    List<NodeInfo> holders = registry.ring().walk(id, cfg.tolerance);
+
+                    long start = System.nanoTime();
+                    if (HedgedRead.retrieve(holders, id, mode) == null) misses[me]++;
+                    if (count < lat.length - 1) lat[count++] = (System.nanoTime() - start) / 1_000L;
+                }
+                lat[lat.length - 1] = count;
+                finished.countDown();
+            });
+            th.setDaemon(true);
+            th.start();
+        }
+
+        Thread.sleep(cfg.seconds * 1000L);
+        stop.set(true);
+        finished.await();
+
+        int total = 0;
+        for (long[] lat : perThread) total += (int) lat[lat.length - 1];
+        long[] all = new long[total];
+        int pos = 0;
+        for (long[] lat : perThread) {
+            int n = (int) lat[lat.length - 1];
+            System.arraycopy(lat, 0, all, pos, n);
+            pos += n;
+        }
+        Arrays.sort(all);
+
+        if (print && total > 0) {
+            System.out.printf("%s,%.0f,%d,%d,%d,%d%n", mode.name().toLowerCase(), total / (double) cfg.seconds,
+                    percentile(all, 0.50), percentile(all, 0.99), percentile(all, 0.999),
+                    Arrays.stream(misses).sum());
+        }
+    }
+
+    // has every id; a stalled one never answers
+    private static final class Follower extends FamilyServiceGrpc.FamilyServiceImplBase {
+
+        private final boolean stalled;
+        private final ByteString value;
+
+        Follower(boolean stalled, ByteString value) {
+            this.stalled = stalled;
+            this.value = value;
+        }
+
+        @Override
+        public void retrieve(GetRequest request, StreamObserver<RetrieveResponse> responseObserver) {
+            if (stalled) return;
+            responseObserver.onNext(RetrieveResponse.newBuilder()
+                    .setFound(true)
+                    .setValue(value)
+                    .build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+    }
+
+    private static Config parseArgs(String[] args) {
+        Config c = new Config();
+        for (String a : args) {
+            if (a.startsWith("--followers=")) c.followers = Integer.parseInt(a.substring("--followers=".length()));
+            else if (a.startsWith("--tolerance=")) c.tolerance = Integer.parseInt(a.substring("--tolerance=".length()));
+            else if (a.startsWith("--threads=")) c.threads = Integer.parseInt(a.substring("--threads=".length()));
+            else if (a.startsWith("--seconds=")) c.seconds = Integer.parseInt(a.substring("--seconds=".length()));
+        }
+        if (c.followers < 2) c.followers = 2;
+        if (c.tolerance < 2) c.tolerance = 2;
+        if (c.tolerance > c.followers) c.tolerance = c.followers;
+        if (c.threads < 1) c.threads = 1;
+        if (c.seconds < 1) c.seconds = 1;
+        return c;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.family;
+
+/**
+ * Hedged SET replication: one spare follower on top of the `tolerance` selected ones.
+ *
+ * hedgeWrites=off     never (default)
+ * hedgeWrites=delayed the spare is written when no quorum came back within the
+ *                     hedgePercentile of recent replica ack latencies, or as soon
+ *                     as a selected replica fails
+ * hedgeWrites=eager   the spare is written together with the selected ones
+ *
+ * Either way the SET returns after the first `tolerance` acks. Hedges are paid
+ * from a budget: every SET adds hedgeBudgetPercent/100 of a token (at most
+ * hedgeBudgetBurst tokens are kept), every hedge takes one, so hedging can add
+ * at most hedgeBudgetPercent extra replica writes in the long run.
+ *
+ * Counters: hedge.fired, hedge.won (the spare's ack was part of the quorum),
+ * hedge.throttled (a hedge was due but the budget was empty).
+ */
+public final class Hedging {
+
+    public enum Mode { OFF, DELAYED, EAGER }
+
+    public static final Mode MODE = parseMode(NodeConfig.getString("hedgeWrites", "off"));
+
+    private static final double PERCENTILE = NodeConfig.getDouble("hedgePercentile", 95);
+    private static final double TOKENS_PER_SET = NodeConfig.getDouble("hedgeBudgetPercent", 10) / 100.0;
+    private static final double MAX_TOKENS = NodeConfig.getDouble("hedgeBudgetBurst", 10);
+
+    // below this many samples the percentile means little: no delayed hedges yet
+    private static final int MIN_SAMPLES = 100;
+
+    private static final LatencyWindow ackLatency = new LatencyWindow(1024);
+    private static final TokenBudget budget = new TokenBudget(TOKENS_PER_SET, MAX_TOKENS);
+
+    private Hedging() {}
+
+    private static Mode parseMode(String s) {
+        try {
+            return Mode.valueOf(s.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("WARNING: bad value for hedgeWrites, using default=off");
+            return Mode.OFF;
+        }
+    }
+
+    public static boolean enabled() {
+        return MODE != Mode.OFF;
+    }
+
+    /** Every replicated SET, hedged or not, earns its share of the budget. */
+    public static void earn() {
+        budget.earn();
+    }
+
+    /** true = a hedge may be sent now (the token is taken). */
+    public static boolean tryAcquire() {
+        if (!budget.tryAcquire()) {
+            LeaderMetrics.increment("hedge.throttled");
+            return false;
+        }
+        LeaderMetrics.increment("hedge.fired");
+        return true;
+    }
+
+    public static void won() {
+        LeaderMetrics.increment("hedge.won");
+    }
+
+    /** Ack latency of one selected replica. */
+    public static void record(long nanos) {
+        if (MODE == Mode.DELAYED) ackLatency.record(nanos);
+    }
+
+    /** How long to wait for the quorum before the spare is written; -1 = not (yet). */
+    public static long delayNanos() {
+        switch (MODE) {
+            case EAGER:
+                return 0;
+            case DELAYED:
+                return ackLatency.percentile(PERCENTILE, MIN_SAMPLES);
+            default:
+                return -1;
+        }
+    }
+}
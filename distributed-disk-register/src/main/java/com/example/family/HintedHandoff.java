@@ -0,0 +1,440 @@
+package com.example.family;
+
+import com.google.protobuf.UnsafeByteOperations;
+import family.BatchStoreResult;
+import family.FamilyServiceGrpc;
+import family.NodeInfo;
+import family.StoredBatch;
+import family.StoredMessage;
+import io.grpc.Status;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Hinted handoff: SETs a follower missed are kept on the leader's disk and
+ * replayed to it when it is back.
+ *
+ * When a replica write still fails after Retry because the follower could not
+ * be reached (unavailable, deadline, timeout), the message is appended to
+ * hintsDir/<host>_<port>.hints with its WriteVersion and forced to disk.
+ * The hint stands in for that replica's ack (a SET still needs one real ack)
+ * and its id counts as under-replicated (WriteConsistency) until it is replayed;
+ * the replica is told to start()'s listener then. The hints of a SET that
+ * failed anyway are discarded.
+ *
+ * Every hintReplayIntervalMs each follower with hints gets at most one
+ * StoreBatch of hintReplayBatch messages (at most batchMaxBytes), oldest first. A failed batch backs the
+ * follower off with jitter (up to hintRetryMaxMs), so a returning follower is
+ * fed at a steady pace, not all at once; the batches that get through also bring
+ * it back into PeerHealth. A hint that a
+ * later direct write to the same follower superseded is skipped (that is
+ * written to the file too), and one that races with a direct write loses on
+ * the follower, which ignores writes older than the version it has. Hints
+ * left from before a leader restart are loaded at start(), from where replay
+ * had got to (hintsDir/<host>_<port>.offset).
+ *
+ * hintedHandoff=on|off. Counters: hints.stored, hints.replayed, hints.skipped,
+ * hints.failedBatches; gauge hints.pending.
+ */
+public final class HintedHandoff {
+
+    public static final boolean ENABLED =
+            NodeConfig.getString("hintedHandoff", "off").equalsIgnoreCase("on");
+
+    private static final Path DIR = Paths.get(NodeConfig.getString("hintsDir", "data/hints"));
+    private static final long REPLAY_INTERVAL_MS = NodeConfig.getLong("hintReplayIntervalMs", 200);
+    private static final int REPLAY_BATCH = NodeConfig.getInt("hintReplayBatch", 64);
+    private static final long RETRY_MAX_MS = NodeConfig.getLong("hintRetryMaxMs", 5000);
+    private static final int HEADER = 8 + 8 + 4;
+
+    private static final Map<NodeInfo, Hints> hints = new ConcurrentHashMap<>();
+
+    private static volatile BiConsumer<NodeInfo, StoredMessage> replayed = (n, m) -> {};
+
+    private static final ScheduledExecutorService replayer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "hint-replay");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        LeaderMetrics.gauge("hints.pending",
+                () -> hints.values().stream().mapToLong(Hints::pending).sum());
+    }
+
+    private HintedHandoff() {}
+
+    private static final class Batch {
+        final List<StoredMessage> messages = new ArrayList<>();
+        final List<Long> numbers = new ArrayList<>();   // record number of each message
+        long endRecord;
+        long endOffset;
+    }
+
+    // one follower's hint file: records are numbered in append order, `latest`
+    // maps an id to the number of its newest hint that still has to go out.
+    // A record is [id:8][version:8][length:4][value]; length -1 drops the hint of
+    // id (a direct write superseded it, or its SET failed), so that survives a restart.
+    // Where replay got to is kept in a .offset file next to it.
+    private static final class Hints {
+        final NodeInfo node;
+        final Path path;
+        final FileChannel file;
+        final FileChannel offsets;
+        final Map<Long, Long> latest = new HashMap<>();
+        // file I/O under it: a lock, not a monitor (virtual threads, see Workers)
+        final ReentrantLock lock = new ReentrantLock();
+        long appended = 0;       // records in the file
+        long replayed = 0;       // records before `offset` (sent or skipped)
+        long offset = 0;         // file position of the next record to replay
+        int failures = 0;
+        long nextAttempt = 0;    // System.nanoTime() before which nothing is sent
+
+        Hints(NodeInfo node) throws IOException {
+            this.node = node;
+            String name = node.getHost() + "_" + node.getPort();
+            this.path = DIR.resolve(name + ".hints");
+            Files.createDirectories(DIR);
+            this.file = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.offsets = FileChannel.open(DIR.resolve(name + ".offset"), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            load();
+        }
+
+        // numbers the records already in the file (a leader restart); the ones
+        // before the saved offset went out already
+        private void load() throws IOException {
+            long doneOffset = 0, doneRecords = 0;
+            ByteBuffer saved = ByteBuffer.allocate(16);
+            if (offsets.size() >= 16) {
+                offsets.read(saved, 0);
+                saved.flip();
+                doneOffset = saved.getLong();
+                doneRecords = saved.getLong();
+            }
+            // an offset that is no record boundary of this file: replay it all
+            if (!scan(doneOffset, doneRecords)) scan(0, 0);
+        }
+
+        private boolean scan(long doneOffset, long doneRecords) throws IOException {
+            latest.clear();
+            appended = 0;
+            long pos = 0, size = file.size();
+            boolean boundary = false;
+            ByteBuffer head = ByteBuffer.allocate(HEADER);
+            while (pos + HEADER <= size) {
+                boundary |= pos == doneOffset && appended == doneRecords;
+                head.clear();
+                file.read(head, pos);
+                head.flip();
+                long id = head.getLong();
+                head.getLong();
+                int len = head.getInt();
+                long end = pos + HEADER + Math.max(0, len);
+                if (end > size) break;    // torn last record
+                if (appended >= doneRecords) {
+                    if (len < 0) latest.remove(id);
+                    else latest.put(id, appended);
+                }
+                appended++;
+                pos = end;
+            }
+            file.truncate(pos);
+            boundary |= pos == doneOffset && appended == doneRecords;
+            if (!boundary) return false;
+            offset = doneOffset;
+            replayed = doneRecords;
+            return true;
+        }
+
+        long pending() {
+            lock.lock();
+            try {
+                return latest.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        List<Long> ids() {
+            lock.lock();
+            try {
+                return new ArrayList<>(latest.keySet());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void append(StoredMessage m) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(HEADER + m.getValue().size());
+            buf.putLong(m.getId()).putLong(m.getVersion()).putInt(m.getValue().size());
+            m.getValue().copyTo(buf);
+            buf.flip();
+
+            lock.lock();
+            try {
+                write(buf);
+                latest.put(m.getId(), appended++);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void superseded(long id) throws IOException {
+            lock.lock();
+            try {
+                if (latest.remove(id) == null) return;
+                ByteBuffer buf = ByteBuffer.allocate(HEADER);
+                buf.putLong(id).putLong(0).putInt(-1);
+                buf.flip();
+                write(buf);
+                appended++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void write(ByteBuffer buf) throws IOException {
+            long pos = file.size();
+            while (buf.hasRemaining()) pos += file.write(buf, pos);
+            file.force(false);
+        }
+
+        boolean contains(long id) {
+            lock.lock();
+            try {
+                return latest.containsKey(id);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // the next hints that are still current, oldest first
+        Batch next() throws IOException {
+            lock.lock();
+            try {
+                Batch batch = new Batch();
+                long size = file.size();
+                ByteBuffer head = ByteBuffer.allocate(HEADER);
+                batch.endOffset = offset;
+                batch.endRecord = replayed;
+                long bytes = 0;
+                while (batch.messages.size() < REPLAY_BATCH && batch.endOffset + HEADER <= size) {
+                    head.clear();
+                    file.read(head, batch.endOffset);
+                    head.flip();
+                    long id = head.getLong();
+                    long version = head.getLong();
+                    int len = head.getInt();
+                    // one StoreBatch stays under batchMaxBytes (LargeValues)
+                    if (!batch.messages.isEmpty() && bytes + len > LargeValues.BATCH_MAX_BYTES) break;
+                    if (len >= 0 && Long.valueOf(batch.endRecord).equals(latest.get(id))) {
+                        ByteBuffer value = ByteBuffer.allocate(len);
+                        while (value.hasRemaining()) file.read(value, batch.endOffset + HEADER + value.position());
+                        value.flip();
+                        batch.messages.add(StoredMessage.newBuilder()
+                                .setId(id)
+                                .setValue(UnsafeByteOperations.unsafeWrap(value))
+                                .setVersion(version)
+                                .build());
+                        batch.numbers.add(batch.endRecord);
+                        bytes += len;
+                    } else if (len >= 0) {
+                        LeaderMetrics.increment("hints.skipped");
+                    }
+                    batch.endOffset += HEADER + Math.max(0, len);
+                    batch.endRecord++;
+                }
+                return batch;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // the batch is on the follower
+        void delivered(Batch batch) throws IOException {
+            lock.lock();
+            try {
+                for (int i = 0; i < batch.messages.size(); i++) {
+                    long id = batch.messages.get(i).getId();
+                    if (batch.numbers.get(i).equals(latest.get(id))) latest.remove(id);
+                }
+                offset = batch.endOffset;
+                replayed = batch.endRecord;
+                failures = 0;
+
+                // all out: start the file over
+                if (replayed == appended && latest.isEmpty()) {
+                    file.truncate(0);
+                    file.force(false);
+                    appended = replayed = offset = 0;
+                }
+                saveOffset();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void saveOffset() throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(16);
+            buf.putLong(offset).putLong(replayed);
+            buf.flip();
+            while (buf.hasRemaining()) offsets.write(buf, buf.position());
+            offsets.force(false);
+        }
+
+        boolean due(long now) {
+            lock.lock();
+            try {
+                return replayed < appended && now - nextAttempt >= 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void backOff(long now) {
+            lock.lock();
+            try {
+                failures++;
+                nextAttempt = now + Retry.backoffMs(failures, REPLAY_INTERVAL_MS, RETRY_MAX_MS) * 1_000_000L;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Loads hints left on disk and starts replaying them; `listener` gets each message n now has. */
+    public static void start(BiConsumer<NodeInfo, StoredMessage> listener) {
+        if (!ENABLED) return;
+        replayed = listener;
+        try (var files = Files.list(DIR)) {
+            files.forEach(p -> {
+                String name = p.getFileName().toString();
+                if (!name.endsWith(".hints")) return;
+                String[] hp = name.substring(0, name.length() - ".hints".length()).split("_");
+                try {
+                    hints(NodeInfo.newBuilder().setHost(hp[0]).setPort(Integer.parseInt(hp[1])).build());
+                } catch (RuntimeException ignored) {}
+            });
+        } catch (IOException ignored) {
+            // no hints yet
+        }
+        for (Hints h : hints.values()) {
+            h.ids().forEach(WriteConsistency::behind);
+        }
+        replayer.scheduleWithFixedDelay(HintedHandoff::replay,
+                REPLAY_INTERVAL_MS, REPLAY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static Hints hints(NodeInfo n) {
+        return hints.computeIfAbsent(n, k -> {
+            try {
+                return new Hints(k);
+            } catch (IOException e) {
+                throw new IllegalStateException("hints for " + k.getPort(), e);
+            }
+        });
+    }
+
+    /** The write failed because n could not be reached in time (worth a hint). */
+    public static boolean unreachable(Throwable t) {
+        if (t instanceof TimeoutException) return true;
+        return Retry.retryable(t) || Status.fromThrowable(t).getCode() == Status.Code.DEADLINE_EXCEEDED;
+    }
+
+    /** Keeps m for n; false when it could not be written to disk. */
+    public static boolean store(NodeInfo n, StoredMessage m) {
+        if (!ENABLED) return false;
+        try {
+            hints(n).append(m);
+        } catch (IOException | IllegalStateException e) {
+            return false;
+        }
+        WriteConsistency.behind(m.getId());
+        LeaderMetrics.increment("hints.stored");
+        return true;
+    }
+
+    /** A direct write of id reached n: an older hint for it must not overwrite it. */
+    public static void delivered(NodeInfo n, long id) {
+        drop(n, id);
+    }
+
+    /** The SET of id failed: its hint for n must not go out. */
+    public static void discard(NodeInfo n, long id) {
+        drop(n, id);
+        if (!pending(id)) WriteConsistency.caughtUp(id);
+    }
+
+    private static void drop(NodeInfo n, long id) {
+        Hints h = hints.get(n);
+        if (h == null) return;
+        try {
+            h.superseded(id);
+        } catch (IOException e) {
+            // the follower's version check still keeps the hint from overwriting it
+            System.err.println("hints for " + n.getPort() + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean pending(long id) {
+        for (Hints h : hints.values()) {
+            if (h.contains(id)) return true;
+        }
+        return false;
+    }
+
+    private static void replay() {
+        long now = System.nanoTime();
+        for (Hints h : hints.values()) {
+            if (!h.due(now)) continue;
+            try {
+                replayBatch(h);
+            } catch (Exception e) {
+                LeaderMetrics.increment("hints.failedBatches");
+                h.backOff(now);
+            }
+        }
+    }
+
+    private static void replayBatch(Hints h) throws IOException {
+        Batch batch = h.next();
+
+        if (!batch.messages.isEmpty()) {
+            FamilyServiceGrpc.FamilyServiceBlockingStub stub =
+                    Deadlines.store(PeerChannels.blocking(h.node));
+            StoredBatch req = StoredBatch.newBuilder().addAllMessages(batch.messages).build();
+            BatchStoreResult result = PeerHealth.call(h.node, Deadlines.STORE_MS,
+                    () -> stub.storeBatch(req));
+            if (result.getStoredIdsCount() < batch.messages.size()) {
+                throw new IOException(h.node.getPort() + " stored " + result.getStoredIdsCount()
+                        + " of " + batch.messages.size() + " hints");
+            }
+        }
+
+        h.delivered(batch);
+        LeaderMetrics.add("hints.replayed", batch.messages.size());
+        for (StoredMessage m : batch.messages) {
+            replayed.accept(h.node, m);
+            if (!pending(m.getId())) WriteConsistency.caughtUp(m.getId());
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.example.family;
+
+import family.Empty;
+import family.IdBatch;
+import family.NodeInfo;
+import io.grpc.stub.StreamObserver;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Which ids can exist at all, so a GET for one that was never SET is answered
+ * NOT_FOUND by the leader without asking any follower.
+ *
+ * A Bloom filter of every id the leader saw a SET for, sized for
+ * bloomExpectedKeys at bloomFalsePositiveRate. When that many are in, another
+ * filter twice the size (and half the rate) is stacked on top, so the rate
+ * stays bounded as the key space grows. Ids stored before the leader started
+ * come from the followers: each one that joins streams its ids (ListIds) once.
+ * Until every member has, the filter cannot say "absent" and only the
+ * negative cache is used.
+ *
+ * The negative cache keeps the last negativeCacheSize ids the followers
+ * confirmed missing (false positives of the filter, or ids asked before it was
+ * ready) by every holder on the ring. A SET of the id removes it; a miss that
+ * raced with a SET is not recorded (version(), like ValueCache). It is cleared
+ * when a member joins and when its ids are in, since a member that comes back
+ * may hold ids that were missing while it was away. It is split by hash over
+ * NEGATIVE_SEGMENTS LRUs, each behind its own lock, so GETs do not all queue
+ * on one.
+ *
+ * Counters: filter.absent, filter.negativeHits; gauges filter.keys, filter.bits,
+ * filter.ready.
+ */
+public final class KeyFilter {
+
+    private static final long EXPECTED = NodeConfig.getLong("bloomExpectedKeys", 1_000_000);
+    private static final double FPP = NodeConfig.getDouble("bloomFalsePositiveRate", 0.01);
+    private static final int NEGATIVE_SIZE = NodeConfig.getInt("negativeCacheSize", 10_000);
+    private static final long SEED_RETRY_MS = 5000;
+    private static final int VERSION_STRIPES = 1024;
+    private static final int NEGATIVE_SEGMENTS = 16;
+
+    private static final List<Bloom> layers = new CopyOnWriteArrayList<>(List.of(new Bloom(EXPECTED, FPP)));
+    private static final Set<NodeInfo> unseeded = ConcurrentHashMap.newKeySet();
+    private static final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+    private static volatile boolean started = false;
+
+    private static final Missing[] missing = new Missing[NEGATIVE_SEGMENTS];
+
+    private static final ScheduledExecutorService seeder = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "key-filter-seed");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        int perSegment = Math.max(1, NEGATIVE_SIZE / NEGATIVE_SEGMENTS);
+        for (int i = 0; i < NEGATIVE_SEGMENTS; i++) missing[i] = new Missing(perSegment);
+        LeaderMetrics.gauge("filter.keys", () -> layers.stream().mapToLong(b -> b.count.get()).sum());
+        LeaderMetrics.gauge("filter.bits", () -> layers.stream().mapToLong(b -> b.bits).sum());
+        LeaderMetrics.gauge("filter.ready", () -> ready() ? 1 : 0);
+    }
+
+    private KeyFilter() {}
+
+    /** Seeds the filter from every follower, now and whenever one joins. */
+    public static void start(NodeRegistry registry, NodeInfo self) {
+        registry.addListener(new NodeRegistry.Listener() {
+            @Override
+            public void added(NodeInfo n) {
+                if (!n.equals(self)) seed(n);
+            }
+
+            @Override
+            public void removed(NodeInfo n) {
+                unseeded.remove(n);
+            }
+        });
+        for (NodeInfo n : registry.snapshot()) {
+            if (!n.equals(self)) seed(n);
+        }
+        started = true;
+    }
+
+    /** The filter covers the ids of every member. */
+    public static boolean ready() {
+        return started && unseeded.isEmpty();
+    }
+
+    /** false = id certainly has no value (NOT_FOUND without an RPC). */
+    public static boolean mightContain(long id) {
+        if (missing(id).contains(id)) {
+            LeaderMetrics.increment("filter.negativeHits");
+            return false;
+        }
+        if (!ready()) return true;
+        for (Bloom b : layers) {
+            if (b.mightContain(id)) return true;
+        }
+        LeaderMetrics.increment("filter.absent");
+        return false;
+    }
+
+    /** A SET of id is under way. */
+    public static void added(long id) {
+        versions.incrementAndGet(stripe(id));
+        missing(id).remove(id);
+        put(id);
+    }
+
+    public static long version(long id) {
+        return versions.get(stripe(id));
+    }
+
+    /** The followers said id is not there, and no SET came since `version`. */
+    public static void absent(long id, long version) {
+        missing(id).addIf(id, version);
+    }
+
+    private static void clearMissing() {
+        for (Missing m : missing) m.clear();
+    }
+
+    private static Missing missing(long id) {
+        return missing[(int) (HashRing.mix(id) & (NEGATIVE_SEGMENTS - 1))];
+    }
+
+    private static void put(long id) {
+        Bloom last = layers.get(layers.size() - 1);
+        if (last.count.get() >= last.capacity) {
+            synchronized (layers) {
+                last = layers.get(layers.size() - 1);
+                if (last.count.get() >= last.capacity) {
+                    last = new Bloom(last.capacity * 2, last.fpp / 2);
+                    layers.add(last);
+                }
+            }
+        }
+        last.put(id);
+    }
+
+    // one ListIds stream; a failed one is tried again later
+    private static void seed(NodeInfo n) {
+        unseeded.add(n);
+        clearMissing();
+        try {
+            PeerChannels.async(n).listIds(Empty.getDefaultInstance(), new StreamObserver<IdBatch>() {
+                @Override
+                public void onNext(IdBatch batch) {
+                    for (long id : batch.getIdsList()) put(id);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    seeder.schedule(() -> {
+                        if (unseeded.contains(n)) seed(n);
+                    }, SEED_RETRY_MS, TimeUnit.MILLISECONDS);
+                }
+
+                @Override
+                public void onCompleted() {
+                    unseeded.remove(n);
+                    clearMissing();
+                }
+            });
+        } catch (RuntimeException e) {
+            seeder.schedule(() -> {
+                if (unseeded.contains(n)) seed(n);
+            }, SEED_RETRY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static int stripe(long id) {
+        return (int) (HashRing.mix(id) & (VERSION_STRIPES - 1));
+    }
+
+    // one segment of the negative cache: an LRU of `max` ids
+    private static final class Missing {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<Long, Boolean> ids;
+
+        Missing(int max) {
+            ids = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                    return size() > max;
+                }
+            };
+        }
+
+        boolean contains(long id) {
+            lock.lock();
+            try {
+                return ids.get(id) != null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(long id) {
+            lock.lock();
+            try {
+                ids.remove(id);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // checked under the lock: a SET's added() either came before (no entry)
+        // or removes the entry after
+        void addIf(long id, long version) {
+            lock.lock();
+            try {
+                if (versions.get(stripe(id)) == version) ids.put(id, Boolean.TRUE);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                ids.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // k bits per id out of `bits`, double hashing on the mixed id
+    private static final class Bloom {
+        final long capacity;
+        final double fpp;
+        final long bits;
+        final int k;
+        final AtomicLongArray words;
+        final AtomicLong count = new AtomicLong();
+
+        Bloom(long capacity, double fpp) {
+            this.capacity = Math.max(1, capacity);
+            this.fpp = fpp;
+            long m = (long) Math.ceil(-this.capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            this.words = new AtomicLongArray((int) Math.max(1, (m + 63) / 64));
+            this.bits = words.length() * 64L;
+            this.k = Math.max(1, (int) Math.round(m / (double) this.capacity * Math.log(2)));
+        }
+
+        void put(long id) {
+            long h1 = HashRing.mix(id), h2 = HashRing.mix(h1) | 1;
+            for (int i = 0; i < k; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bits);
+                int w = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long old;
+                while (((old = words.get(w)) & mask) == 0 && !words.compareAndSet(w, old, old | mask)) {
+                    // another bit of the same word was set meanwhile
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        boolean mightContain(long id) {
+            long h1 = HashRing.mix(id), h2 = HashRing.mix(h1) | 1;
+            for (int i = 0; i < k; i++) {
+                long bit = Math.floorMod(h1 + i * h2, bits);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+            }
+            return true;
+        }
+    }
+}
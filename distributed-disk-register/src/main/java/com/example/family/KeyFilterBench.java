@@ -0,0 +1,64 @@
+package com.example.family;
+
+import family.NodeInfo;
+
+/**
+ * False-positive rate and lookup cost of the leader's KeyFilter (no nodes are started).
+ *
+ * SETs ids 1..keys, then asks for `lookups` ids that were never SET and counts
+ * how many the filter could not rule out (those would still cost a follower
+ * round trip). keys above bloomExpectedKeys show the stacked filters at work.
+ *
+ *   --keys=1000000 --lookups=1000000
+ *   -DbloomExpectedKeys=... -DbloomFalsePositiveRate=... apply as in the leader
+ */
+public class KeyFilterBench {
+
+    public static void main(String[] args) {
+        long keys = 1_000_000;
+        int lookups = 1_000_000;
+        for (String a : args) {
+            if (a.startsWith("--keys=")) keys = Long.parseLong(a.substring("--keys=".length()));
+            else if (a.startsWith("--lookups=")) lookups = Integer.parseInt(a.substring("--lookups=".length()));
+        }
+
+        NodeInfo self = NodeInfo.newBuilder().setHost("127.0.0.1").setPort(0).build();
+        KeyFilter.start(new NodeRegistry(), self);
+
+        long start = System.nanoTime();
+        for (long id = 1; id <= keys; id++) KeyFilter.added(id);
+        long addNs = (System.nanoTime() - start) / keys;
+
+        long falsePositives = 0;
+        long lookupNs = 0;
+        for (int round = 0; round < 2; round++) {
+            falsePositives = 0;
+            start = System.nanoTime();
+            for (long id = keys + 1; id <= keys + lookups; id++) {
+                if (KeyFilter.mightContain(id)) falsePositives++;
+            }
+            lookupNs = (System.nanoTime() - start) / lookups;
+        }
+
+        long present = 0;
+        for (long id = 1; id <= keys; id += Math.max(1, keys / lookups)) {
+            if (KeyFilter.mightContain(id)) present++;
+        }
+
+        System.out.printf("KeyFilterBench | keys=%d | expected=%d | target fpp=%.4f%n",
+                keys, NodeConfig.getLong("bloomExpectedKeys", 1_000_000),
+                NodeConfig.getDouble("bloomFalsePositiveRate", 0.01));
+        System.out.printf("false positives %.4f%% | SET ids found %d of %d | %d ns per lookup, %d ns per add | %d KB%n",
+                100.0 * falsePositives / lookups,
+                present, (keys + Math.max(1, keys / lookups) - 1) / Math.max(1, keys / lookups),
+                lookupNs, addNs,
+                parseGauge("filter.bits") / 8 / 1024);
+    }
+
+    private static long parseGauge(String name) {
+        for (String kv : LeaderMetrics.render().split(" ")) {
+            if (kv.startsWith(name + "=")) return Long.parseLong(kv.substring(name.length() + 1));
+        }
+        return 0;
+    }
+}
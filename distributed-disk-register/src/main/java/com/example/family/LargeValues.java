@@ -0,0 +1,289 @@
+package com.example.family;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import family.*;
+import io.grpc.Context;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Leader side of the chunked path for large values (StoreStream / ReadStream).
+ *
+ * A value above streamThresholdBytes is never built as one message: upload()
+ * reads it chunk by chunk (from the client socket or an existing ByteString) and
+ * sends every chunk to all replicas, waiting for gRPC flow control before the
+ * next one; download() hands chunks to a sink as they arrive. Heap use per value
+ * stays around chunkBytes, and gRPC's 4 MB message limit no longer applies.
+ *
+ * The batch RPCs stay under that limit too: MSET sends its large values this
+ * way, and a StoreBatch (MSET, hint replay) carries at most batchMaxBytes.
+ */
+public class LargeValues {
+
+    public static final int STREAM_THRESHOLD_BYTES = NodeConfig.getInt("streamThresholdBytes", 256 * 1024);
+    public static final int CHUNK_BYTES = NodeConfig.getInt("chunkBytes", 64 * 1024);
+    public static final int BATCH_MAX_BYTES = NodeConfig.getInt("batchMaxBytes", 1024 * 1024);
+
+    /** Where upload() takes the next chunk from. */
+    public interface ChunkSource {
+        ByteString next(int maxBytes) throws IOException;
+
+        /** Exactly `size` bytes from a stream (the client socket), one fresh chunk at a time. */
+        static ChunkSource of(InputStream in) {
+            return maxBytes -> {
+                byte[] buf = in.readNBytes(maxBytes);
+                if (buf.length < maxBytes) throw new IOException("value ended early");
+                return UnsafeByteOperations.unsafeWrap(buf);
+            };
+        }
+
+        /** Slices of a value we already hold (no copy). */
+        static ChunkSource of(ByteString value) {
+            int[] pos = {0};
+            return maxBytes -> {
+                ByteString chunk = value.substring(pos[0], pos[0] + maxBytes);
+                pos[0] += maxBytes;
+                return chunk;
+            };
+        }
+    }
+
+    /**
+     * Streams `size` bytes from source to every target.
+     * The whole value is always consumed from source, even when all targets fail,
+     * so the caller's framing stays intact. Returns the targets that stored it.
+     */
+    public static List<NodeInfo> upload(List<NodeInfo> targets,
+                                        long id,
+                                        long version,
+                                        long size,
+                                        ChunkSource source) throws IOException {
+
+        List<NodeInfo> stored = new ArrayList<>();
+        for (Map.Entry<NodeInfo, ListenableFuture<Void>> e : send(targets, id, version, size, source).entrySet()) {
+            try {
+                e.getValue().get();
+                stored.add(e.getKey());
+            } catch (ExecutionException ignored) {
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * Same, but returns once every chunk is sent, with one future per target
+     * that completes when that target stored the value (fails otherwise), so
+     * the caller can answer after fewer acks (WriteConsistency).
+     */
+    public static Map<NodeInfo, ListenableFuture<Void>> send(List<NodeInfo> targets,
+                                                             long id,
+                                                             long version,
+                                                             long size,
+                                                             ChunkSource source) throws IOException {
+
+        List<Upload> uploads = new ArrayList<>();
+        for (NodeInfo n : targets) {
+            uploads.add(new Upload(n));
+        }
+
+        boolean sentAll = false;
+        try {
+            long sent = 0;
+            do {
+                int n = (int) Math.min(CHUNK_BYTES, size - sent);
+                ByteString data = source.next(n);
+
+                ValueChunk.Builder chunk = ValueChunk.newBuilder().setData(data);
+                if (sent == 0) chunk.setId(id).setVersion(version).setTotalSize(size);
+                ValueChunk c = chunk.build();
+
+                for (Upload u : uploads) {
+                    u.send(c);
+                }
+                sent += n;
+            } while (sent < size);
+            sentAll = true;
+
+            Map<NodeInfo, ListenableFuture<Void>> acks = new LinkedHashMap<>();
+            for (Upload u : uploads) {
+                acks.put(u.node, u.finish());
+            }
+            return acks;
+
+        } finally {
+            // source failed midway: don't leave half a value open on the replicas
+            if (!sentAll) {
+                for (Upload u : uploads) {
+                    u.abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a value with ReadStream from one holder.
+     * Returns false when the holder has nothing, before anything was given to sink.
+     */
+    public static boolean download(NodeInfo n, long id, LeaderStore.ValueSink sink) throws IOException {
+        // cancelled on the way out, so a sink failure doesn't leave the stream open
+        Context.CancellableContext call = Context.current().withCancellation();
+        Context previous = call.attach();
+        // only the time spent waiting for the follower counts, not a slow sink
+        Deadlines.Stall stall = Deadlines.stall(call, Deadlines.GET_MS);
+        try {
+            // the blocking iterator requests one chunk at a time
+            Iterator<ValueChunk> it = PeerChannels.blocking(n).readStream(
+                    GetRequest.newBuilder().setId(id).build());
+
+            if (!next(it, stall)) return false;
+
+            ValueChunk first = it.next();
+            sink.begin(first.getTotalSize());
+            sink.write(first.getData());
+
+            while (next(it, stall)) {
+                sink.write(it.next().getData());
+            }
+            return true;
+
+        } finally {
+            stall.close();
+            call.detach(previous);
+            call.cancel(null);
+        }
+    }
+
+    private static boolean next(Iterator<ValueChunk> it, Deadlines.Stall stall) {
+        stall.waiting();
+        try {
+            return it.hasNext();
+        } finally {
+            stall.progress();
+        }
+    }
+
+    // One client-streaming StoreStream call; send() blocks until gRPC can take more,
+    // at most storeDeadlineMs (then the replica counts as failed).
+    private static final class Upload {
+
+        final NodeInfo node;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition ready = lock.newCondition();
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private ClientCallStreamObserver<ValueChunk> requests;
+
+        Upload(NodeInfo node) {
+            this.node = node;
+
+            PeerChannels.async(node).storeStream(
+                    new ClientResponseObserver<ValueChunk, StoreResult>() {
+                        private boolean ok = false;
+
+                        @Override
+                        public void beforeStart(ClientCallStreamObserver<ValueChunk> requestStream) {
+                            requests = requestStream;
+                            requestStream.setOnReadyHandler(Upload.this::signal);
+                        }
+
+                        @Override
+                        public void onNext(StoreResult r) {
+                            ok = r.getOk();
+                        }
+
+                        @Override
+                        public void onError(Throwable t) {
+                            result.complete(false);
+                            signal();
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                            result.complete(ok);
+                            signal();
+                        }
+                    });
+        }
+
+        void send(ValueChunk chunk) {
+            if (result.isDone()) return;   // this replica already failed
+
+            lock.lock();
+            try {
+                long deadline = System.nanoTime() + Deadlines.STORE_MS * 1_000_000L;
+                while (!requests.isReady() && !result.isDone()) {
+                    if (System.nanoTime() - deadline > 0) {
+                        stalled();
+                        return;
+                    }
+                    ready.await(100, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                requests.cancel("interrupted", e);
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            if (!result.isDone()) requests.onNext(chunk);
+        }
+
+        // done when the replica acked; no ack within storeDeadlineMs cancels the call
+        ListenableFuture<Void> finish() {
+            if (!result.isDone()) requests.onCompleted();
+            SettableFuture<Void> acked = SettableFuture.create();
+            result.orTimeout(Deadlines.STORE_MS, TimeUnit.MILLISECONDS).whenComplete((ok, t) -> {
+                if (Boolean.TRUE.equals(ok)) {
+                    acked.set(null);
+                    return;
+                }
+                if (t instanceof TimeoutException) PeerHealth.failed(node, t, Deadlines.STORE_MS);
+                requests.cancel("upload not acked", null);
+                acked.setException(t != null ? t : new IllegalStateException(node.getPort() + " did not store the value"));
+            });
+            return acked;
+        }
+
+        void abort() {
+            if (!result.isDone()) requests.cancel("upload aborted", null);
+        }
+
+        // the follower took no chunk for storeDeadlineMs
+        private void stalled() {
+            if (result.complete(false)) {
+                PeerHealth.failed(node, new TimeoutException("upload stalled"), Deadlines.STORE_MS);
+                requests.cancel("follower stalled", null);
+            }
+        }
+
+        private void signal() {
+            lock.lock();
+            try {
+                ready.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
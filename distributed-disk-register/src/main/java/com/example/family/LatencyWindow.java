@@ -0,0 +1,48 @@
+package com.example.family;
+
+import java.util.Arrays;
+
+/**
+ * The last `size` latency samples of something, with percentiles over them.
+ *
+ * Percentiles are sorted out of a copy of the window, so they are recomputed
+ * only every size/8 samples and cached in between.
+ */
+public final class LatencyWindow {
+
+    private final long[] samples;
+    private final int recomputeEvery;
+    private int next = 0;
+    private int count = 0;
+    private int sinceSort = 0;
+    private long[] sorted = new long[0];
+
+    public LatencyWindow(int size) {
+        this.samples = new long[size];
+        this.recomputeEvery = Math.max(1, size / 8);
+    }
+
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) count++;
+        sinceSort++;
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    /** p in 0..100; -1 while there are fewer than minSamples samples. */
+    public synchronized long percentile(double p, int minSamples) {
+        if (count < Math.max(1, minSamples)) return -1;
+
+        if (sorted.length != count || sinceSort >= recomputeEvery) {
+            sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            sinceSort = 0;
+        }
+        int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.family;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Leader side counters/gauges.
+ * Printed by the stats printer and returned to clients by the STATS command.
+ */
+public class LeaderMetrics {
+
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    static {
+        Runtime rt = Runtime.getRuntime();
+        gauge("jvm.heapUsedMb", () -> (rt.totalMemory() - rt.freeMemory()) / (1024 * 1024));
+        // platform threads only; virtual threads are not counted
+        gauge("jvm.threads", () -> ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    public static void add(String name, long delta) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    public static long get(String name) {
+        LongAdder a = counters.get(name);
+        return a == null ? 0 : a.sum();
+    }
+
+    public static void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /** Single line "key=value key=value ..." (sorted by key). */
+    public static String render() {
+        Map<String, Long> all = new ConcurrentSkipListMap<>();
+        counters.forEach((k, v) -> all.put(k, v.sum()));
+        gauges.forEach((k, v) -> all.put(k, v.getAsLong()));
+
+        StringBuilder sb = new StringBuilder();
+        all.forEach((k, v) -> {
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(k).append('=').append(v);
+        });
+        return sb.toString();
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.family;
+
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Leader operations the client front-ends (text, binary) call into.
+ */
+public interface LeaderStore {
+
+    /** Replicates the value; true when enough followers stored it. */
+    default boolean set(long id, ByteString value) {
+        return set(id, value, WriteConsistency.DEFAULT);
+    }
+
+    /** Same, OK after as many acks as write consistency w asks for. */
+    boolean set(long id, ByteString value, int w);
+
+    /** Value from one of the holders, or null when not found. */
+    ByteString get(long id);
+
+    /** SET of `size` bytes read from `in` chunk by chunk (see LargeValues). */
+    default boolean setStream(long id, long size, InputStream in) throws IOException {
+        return setStream(id, size, in, WriteConsistency.DEFAULT);
+    }
+
+    /** Same, OK after as many acks as write consistency w asks for. */
+    boolean setStream(long id, long size, InputStream in, int w) throws IOException;
+
+    /** GET that hands the value to `sink` in chunks; false when not found. */
+    boolean getStream(long id, ValueSink sink) throws IOException;
+
+    /** Values of the ids in [from, to] in id order, at most `limit`; returns how many. */
+    int scan(long from, long to, int limit, EntrySink sink) throws IOException;
+
+    /** Receives one value: begin(size) once, then its bytes in order. */
+    interface ValueSink {
+        void begin(long size) throws IOException;
+
+        void write(ByteString chunk) throws IOException;
+
+        /** All bytes are in (called by scan; a GET needs no end). */
+        default void end() throws IOException {}
+    }
+
+    /** Receives the entries of a scan one by one, ids ascending. */
+    interface EntrySink {
+        void entry(long id, ByteString value) throws IOException;
+
+        /** A large value, in chunks; by default collected and passed to entry() at end(). */
+        default ValueSink value(long id) {
+            return new ValueSink() {
+                ByteString.Output buf;
+
+                @Override
+                public void begin(long size) {
+                    buf = ByteString.newOutput((int) Math.min(size, Integer.MAX_VALUE));
+                }
+
+                @Override
+                public void write(ByteString chunk) throws IOException {
+                    chunk.writeTo(buf);
+                }
+
+                @Override
+                public void end() throws IOException {
+                    entry(id, buf.toByteString());
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.family;
+
+import com.google.protobuf.ByteString;
+import family.*;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replica choice with one slow follower: ring placement vs. loadAware (FollowerStats).
+ *
+ * Starts `followers` in-process followers with one "disk" each (a single thread
+ * that takes writeMs per Store); follower 0 takes slowMs instead. They answer
+ * GetStats with their queue length and write latency like real followers. Then
+ * `threads` callers run SETs for `seconds` per mode, through the same ring order,
+ * PeerHealth tracking and Quorum fan-out replicateSet uses:
+ *
+ *   ring       the first `tolerance` followers of the ring order
+ *   loadAware  FollowerStats.arrange (power of two choices by score)
+ *
+ *   --followers=6 --tolerance=2 --threads=32 --seconds=10 --writeMs=1 --slowMs=20
+ */
+public class LoadBalanceBench {
+
+    private static final class Config {
+        int followers = 6;
+        int tolerance = 2;
+        int threads = 32;
+        int seconds = 10;
+        int writeMs = 1;
+        int slowMs = 20;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config cfg = parseArgs(args);
+
+        NodeInfo self = NodeInfo.newBuilder().setHost("127.0.0.1").setPort(0).build();
+        NodeRegistry registry = new NodeRegistry();
+        registry.addListener(PeerChannels.registryListener(self));
+
+        List<Server> servers = new ArrayList<>();
+        List<DiskFollower> followers = new ArrayList<>();
+        NodeInfo slow = null;
+        for (int i = 0; i < cfg.followers; i++) {
+            DiskFollower f = new DiskFollower(i == 0 ? cfg.slowMs : cfg.writeMs);
+            Server s = ServerBuilder.forPort(0).addService(f).build().start();
+            servers.add(s);
+            followers.add(f);
+            NodeInfo n = NodeInfo.newBuilder().setHost("127.0.0.1").setPort(s.getPort()).build();
+            registry.add(n);
+            if (i == 0) slow = n;
+        }
+        FollowerStats.start(registry, self);
+
+        ByteString value = ByteString.copyFromUtf8("A".repeat(100));
+
+        System.out.printf("LoadBalanceBench | followers=%d (one at %dms, others %dms per write) | tolerance=%d | threads=%d | %ds per run%n",
+                cfg.followers, cfg.slowMs, cfg.writeMs, cfg.tolerance, cfg.threads, cfg.seconds);
+        System.out.println("selection,sets_per_sec,p50_us,p99_us,slow_follower_share_pct");
+
+        try {
+            for (int round = 0; round < 2; round++) {
+                boolean print = round == 1;   // first round is warm-up
+                run("ring", false, cfg, registry, slow, value, print);
+                run("loadAware", true, cfg, registry, slow, value, print);
+            }
+        } finally {
+            for (NodeInfo n : registry.snapshot()) registry.remove(n);
+            for (Server s : servers) s.shutdownNow();
+            for (DiskFollower f : followers) f.disk.shutdownNow();
+        }
+    }
+
+    private static void run(String name,
+                            boolean loadAware,
+                            Config cfg,
+                            NodeRegistry registry,
+                            NodeInfo slowFollower,
+                            ByteString value,
+                            boolean print) throws InterruptedException {
+
+        AtomicLong ids = new AtomicLong();
+        AtomicLong onSlow = new AtomicLong();
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch finished = new CountDownLatch(cfg.threads);
+        List<long[]> perThread = new ArrayList<>();
+
+        for (int t = 0; t < cfg.threads; t++) {
+            long[] lat = new long[1 << 17];
+            perThread.add(lat);
+            Thread th = new Thread(() -> {
+                int count = 0;
+                while (!stop.get()) {
+                    long id = ids.incrementAndGet();
+                    StoredMessage msg = StoredMessage.newBuilder().setId(id).setValue(value).build();
+
+                    long start = System.nanoTime();
+                    List<NodeInfo> order = FollowerStats.arrange(
+                            registry.ring().walk(id), cfg.tolerance, loadAware);
+                    List<NodeInfo> selected = order.subList(0, cfg.tolerance);
+                    if (selected.contains(slowFollower)) onSlow.incrementAndGet();
+
+                    Quorum.await(selected,
+                            n -> PeerHealth.track(n,
+                                    Deadlines.store(PeerChannels.future(n)).store(msg),
+                                    Deadlines.STORE_MS),
+                            cfg.tolerance, n -> {});
+                    if (count < lat.length) lat[count++] = (System.nanoTime() - start) / 1_000L;
+                }
+                lat[lat.length - 1] = count;
+                finished.countDown();
+            });
+            th.setDaemon(true);
+            th.start();
+        }
+
+        Thread.sleep(cfg.seconds * 1000L);
+        stop.set(true);
+        finished.await();
+
+        int total = 0;
+        for (long[] lat : perThread) total += (int) lat[lat.length - 1];
+        long[] all = new long[total];
+        int pos = 0;
+        for (long[] lat : perThread) {
+            int n = (int) lat[lat.length - 1];
+            System.arraycopy(lat, 0, all, pos, n);
+            pos += n;
+        }
+        Arrays.sort(all);
+
+        if (print && total > 0) {
+            System.out.printf("%s,%.0f,%d,%d,%.1f%n", name, total / (double) cfg.seconds,
+                    percentile(all, 0.50), percentile(all, 0.99), 100.0 * onSlow.get() / total);
+        }
+    }
+
+    // one write at a time, like a single disk; reports its queue and latency
+    private static final class DiskFollower extends FamilyServiceGrpc.FamilyServiceImplBase {
+
+        private final int writeMs;
+        private final ThreadPoolExecutor disk = new ThreadPoolExecutor(
+                1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        private volatile double latencyNanos = 0;
+
+        DiskFollower(int writeMs) {
+            this.writeMs = writeMs;
+        }
+
+        @Override
+        public void store(StoredMessage request, StreamObserver<StoreResult> responseObserver) {
+            long queued = System.nanoTime();
+            disk.execute(() -> {
+                try {
+                    Thread.sleep(writeMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                latencyNanos = 0.8 * latencyNanos + 0.2 * (System.nanoTime() - queued);
+                responseObserver.onNext(StoreResult.newBuilder().setOk(true).build());
+                responseObserver.onCompleted();
+            });
+        }
+
+        @Override
+        public void getStats(Empty request, StreamObserver<NodeStats> responseObserver) {
+            responseObserver.onNext(NodeStats.newBuilder()
+                    .setPendingWrites(disk.getQueue().size())
+                    .setWriteLatencyMicros((long) (latencyNanos / 1_000))
+                    .build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+    }
+
+    private static Config parseArgs(String[] args) {
+        Config c = new Config();
+        for (String a : args) {
+            if (a.startsWith("--followers=")) c.followers = Integer.parseInt(a.substring("--followers=".length()));
+            else if (a.startsWith("--tolerance=")) c.tolerance = Integer.parseInt(a.substring("--tolerance=".length()));
+            else if (a.startsWith("--threads=")) c.threads = Integer.parseInt(a.substring("--threads=".length()));
+            else if (a.startsWith("--seconds=")) c.seconds = Integer.parseInt(a.substring("--seconds=".length()));
+            else if (a.startsWith("--writeMs=")) c.writeMs = Integer.parseInt(a.substring("--writeMs=".length()));
+            else if (a.startsWith("--slowMs=")) c.slowMs = Integer.parseInt(a.substring("--slowMs=".length()));
+        }
+        if (c.followers < 2) c.followers = 2;
+        if (c.tolerance < 1) c.tolerance = 1;
+        if (c.tolerance >= c.followers) c.tolerance = c.followers - 1;
+        if (c.threads < 1) c.threads = 1;
+        if (c.seconds < 1) c.seconds = 1;
+        return c;
+    }
+}
@@ -0,0 +1,414 @@
+package com.example.family;
+
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Selector based front-end for the leader's text protocol (SET/GET).
+ *
+ * Acceptor threads (ClientAcceptors) hand sockets to a small, fixed number of event loops.
+ * A loop only does socket IO: complete lines are passed to the worker executor
+ * (replication is blocking gRPC) and the reply is written back by the loop
+ * that owns the connection. Up to pipelineDepth commands of one connection run
+ * concurrently (see CommandPipeline); replies go out in request order. Once the
+ * window is full we stop reading from the socket, so a fast sender can't fill our heap.
+ *
+ * SET/GET are parsed and answered at byte level by TextCodec on per-connection
+ * buffers that are reused; other commands go through the String handler.
+ * A command the leader has no room for (Admission) is answered BUSY right away.
+ */
+public class NioTextListener {
+
+    private static final int READ_BUFFER_BYTES = 8 * 1024;
+    private static final int WRITE_BUFFER_BYTES = 8 * 1024;
+    private static final int MAX_IDLE_WRITE_BUFFER_BYTES = 256 * 1024;
+
+    private static final CompletableFuture<Object> BAD_COMMAND =
+            CompletableFuture.failedFuture(new IllegalArgumentException("malformed SET/GET"));
+    private static final CompletableFuture<Object> REJECTED =
+            CompletableFuture.completedFuture(null);
+
+    private final int port;
+    private final int acceptors;
+    private final int maxLineBytes;
+    private final int pipelineDepth;
+    private final Function<String, String> handler;
+    private final LeaderStore store;
+    private final Executor workers;
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    public NioTextListener(int port,
+                           int acceptors,
+                           int ioThreads,
+                           int maxLineBytes,
+                           int pipelineDepth,
+                           Function<String, String> handler,
+                           LeaderStore store,
+                           Executor workers) throws IOException {
+        this.port = port;
+        this.acceptors = acceptors;
+        this.maxLineBytes = maxLineBytes;
+        this.pipelineDepth = Math.max(1, pipelineDepth);
+        this.handler = handler;
+        this.store = store;
+        this.workers = workers;
+        this.loops = new EventLoop[Math.max(1, ioThreads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+        }
+    }
+
+    public void start() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            Thread t = new Thread(loops[i], "nio-loop-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        ClientAcceptors.start("nio, loops=" + loops.length, port, acceptors, ch -> {
+            try {
+                ch.configureBlocking(false);
+            } catch (IOException e) {
+                try { ch.close(); } catch (IOException ignored) {}
+                return;
+            }
+            EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+            loop.execute(() -> loop.register(ch));
+        });
+    }
+
+    // ======================================================
+    // EVENT LOOP
+    // ======================================================
+
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void register(SocketChannel ch) {
+            try {
+                Connection c = new Connection(ch, this);
+                c.key = ch.register(selector, SelectionKey.OP_READ, c);
+                LeaderMetrics.add("connections.open", 1);
+            } catch (IOException e) {
+                try { ch.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+
+                        Connection c = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) c.onReadable();
+                            if (key.isValid() && key.isWritable()) c.flush();
+                        } catch (IOException e) {
+                            c.close();
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // ======================================================
+    // CONNECTION (owned by one loop, never touched by workers)
+    // ======================================================
+
+    /** A command in flight; the ring of slots is reused for the life of the connection. */
+    private static final class Slot {
+        byte kind;
+        long id;
+        long bytes;
+        CompletableFuture<?> future;
+    }
+
+    private final class Connection {
+
+        private final SocketChannel ch;
+        private final EventLoop loop;
+        private SelectionKey key;
+
+        // both in write mode: in = [0, position) unparsed input, out = [0, position) unsent replies
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        private ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+        private int scanned = 0;
+
+        private final TextCodec.Command cmd = new TextCodec.Command();
+        private final CommandPipeline pipeline = new CommandPipeline(handler, store, workers);
+
+        private final Slot[] slots = new Slot[pipelineDepth];
+        private int head = 0;
+        private int inFlight = 0;
+
+        private final Runnable drainTask = this::drainReplies;
+
+        private boolean inputDone = false;
+        private boolean closed = false;
+
+        Connection(SocketChannel ch, EventLoop loop) {
+            this.ch = ch;
+            this.loop = loop;
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = new Slot();
+            }
+        }
+
+        void onReadable() throws IOException {
+            int n = ch.read(in);
+            if (n < 0) inputDone = true;
+
+            processInput();
+            updateInterest();
+        }
+
+        // parse and dispatch complete lines while the pipeline window has room
+        private void processInput() {
+            byte[] arr = in.array();
+            int end = in.position();
+            int start = 0;
+            int i = scanned;
+
+            while (!closed && inFlight < pipelineDepth) {
+                int nl = TextCodec.indexOf(arr, i, end, (byte) '\n');
+                if (nl < 0) {
+                    // like readLine(): a last line without newline still counts at EOF
+                    if (inputDone && start < end) {
+                        dispatch(arr, start, end);
+                        start = end;
+                    }
+                    i = end;
+                    break;
+                }
+
+                int lineEnd = (nl > start && arr[nl - 1] == '\r') ? nl - 1 : nl;
+                if (!dispatch(arr, start, lineEnd)) {
+                    // nothing after a malformed command is executed
+                    start = end;
+                    i = end;
+                    break;
+                }
+                start = nl + 1;
+                i = start;
+            }
+            if (closed) return;
+
+            // window full with more input waiting: reading pauses until a reply goes out
+            if (inFlight == pipelineDepth && i < end) Admission.queued();
+
+            // keep the unparsed tail at the front of the buffer
+            in.limit(end).position(start);
+            in.compact();
+            scanned = i - start;
+
+            if (!in.hasRemaining() && inFlight < pipelineDepth) {
+                if (in.capacity() >= maxLineBytes) {
+                    System.err.println("Client line longer than " + maxLineBytes + " bytes, closing");
+                    close();
+                    return;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate(Math.min(maxLineBytes, in.capacity() * 2));
+                in.flip();
+                bigger.put(in);
+                in = bigger;
+            }
+        }
+
+        // false when the line was malformed and the connection is being wound down
+        private boolean dispatch(byte[] arr, int start, int end) {
+            TextCodec.parse(arr, start, end, cmd);
+
+            Slot slot = slots[(head + inFlight) % slots.length];
+            slot.kind = cmd.kind;
+            slot.id = cmd.id;
+            slot.bytes = end - start;
+
+            if (cmd.kind != TextCodec.BAD && !Admission.tryAcquire(slot.bytes)) {
+                slot.future = REJECTED;
+                inFlight++;
+                loop.execute(drainTask);
+                return true;
+            }
+
+            switch (cmd.kind) {
+                case TextCodec.SET:
+                    // the value must outlive the read buffer: the one copy we keep
+                    slot.future = pipeline.set(cmd.id,
+                            ByteString.copyFrom(arr, cmd.valueStart, cmd.valueEnd - cmd.valueStart),
+                            cmd.w);
+                    break;
+                case TextCodec.GET:
+                    slot.future = pipeline.get(cmd.id);
+                    break;
+                case TextCodec.OTHER:
+                    slot.future = pipeline.submit(new String(arr, start, end - start, StandardCharsets.UTF_8));
+                    break;
+                default:
+                    // malformed SET/GET: answer what came before, then drop the connection
+                    slot.future = BAD_COMMAND;
+                    inputDone = true;
+                    break;
+            }
+
+            inFlight++;
+            if (slot.future != BAD_COMMAND) {
+                long bytes = slot.bytes;
+                slot.future.whenComplete((r, e) -> Admission.release(bytes));
+            }
+            slot.future.whenComplete((r, e) -> loop.execute(drainTask));
+            return slot.future != BAD_COMMAND;
+        }
+
+        // encode every finished reply at the head, in request order
+        private void drainReplies() {
+            if (closed) return;
+
+            while (inFlight > 0) {
+                Slot slot = slots[head];
+                if (!slot.future.isDone()) break;
+
+                Object result;
+                try {
+                    result = slot.future.join();
+                } catch (CompletionException e) {
+                    // same as the blocking handler: a bad command drops the connection
+                    System.err.println("Bad client command, closing: " + e.getCause());
+                    close();
+                    return;
+                }
+
+                encodeReply(slot, result);
+                slot.future = null;
+                head = (head + 1) % slots.length;
+                inFlight--;
+            }
+
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            processInput();
+            updateInterest();
+        }
+
+        private void encodeReply(Slot slot, Object result) {
+            if (slot.future == REJECTED) {
+                reserve(TextCodec.busySize());
+                TextCodec.encodeBusy(out);
+                return;
+            }
+            switch (slot.kind) {
+                case TextCodec.SET: {
+                    boolean ok = (Boolean) result;
+                    reserve(TextCodec.statusSize(ok));
+                    TextCodec.encodeStatus(out, ok);
+                    break;
+                }
+                case TextCodec.GET: {
+                    ByteString val = (ByteString) result;
+                    if (val == null) {
+                        reserve(TextCodec.notFoundSize());
+                        TextCodec.encodeNotFound(out);
+                    } else {
+                        reserve(TextCodec.valueSize(slot.id, val));
+                        TextCodec.encodeValue(out, slot.id, val);
+                    }
+                    break;
+                }
+                default: {
+                    if (result == null) return;
+                    byte[] line = (result + "\n").getBytes(StandardCharsets.UTF_8);
+                    reserve(line.length);
+                    out.put(line);
+                }
+            }
+        }
+
+        private void reserve(int bytes) {
+            if (out.remaining() >= bytes) return;
+
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes));
+            out.flip();
+            bigger.put(out);
+            out = bigger;
+        }
+
+        void flush() throws IOException {
+            if (out.position() > 0) {
+                out.flip();
+                ch.write(out);
+                out.compact();
+            }
+
+            // drop a buffer that grew for one large value
+            if (out.position() == 0 && out.capacity() > MAX_IDLE_WRITE_BUFFER_BYTES) {
+                out = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+            }
+            updateInterest();
+        }
+
+        private void updateInterest() {
+            if (closed) return;
+
+            if (inputDone && inFlight == 0 && out.position() == 0) {
+                close();
+                return;
+            }
+
+            int ops = 0;
+            if (!inputDone && inFlight < pipelineDepth) ops |= SelectionKey.OP_READ;
+            if (out.position() > 0) ops |= SelectionKey.OP_WRITE;
+            key.interestOps(ops);
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            key.cancel();
+            try { ch.close(); } catch (IOException ignored) {}
+            LeaderMetrics.add("connections.open", -1);
+        }
+    }
+}
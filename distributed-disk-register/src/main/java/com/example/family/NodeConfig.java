@@ -0,0 +1,69 @@
+package com.example.family;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+/**
+ * Node settings read from tolerance.conf (key=value).
+ * A JVM system property with the same key wins, e.g. -DclientIo=blocking
+ */
+public class NodeConfig {
+
+    private static final String CONFIG_FILE = "tolerance.conf";
+
+    private static final Properties props = load();
+
+    private static Properties load() {
+        Properties p = new Properties();
+        try (InputStream is = NodeConfig.class
+                .getClassLoader()
+                .getResourceAsStream(CONFIG_FILE)) {
+
+            if (is != null) {
+                p.load(new InputStreamReader(is, StandardCharsets.UTF_8));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return p;
+    }
+
+    public static String getString(String key, String def) {
+        String v = System.getProperty(key);
+        if (v == null) v = props.getProperty(key);
+        return v == null ? def : v.trim();
+    }
+
+    public static int getInt(String key, int def) {
+        try {
+            return Integer.parseInt(getString(key, String.valueOf(def)));
+        } catch (NumberFormatException e) {
+            System.err.println("WARNING: bad value for " + key + ", using default=" + def);
+            return def;
+        }
+    }
+
+    public static long getLong(String key, long def) {
+        try {
+            return Long.parseLong(getString(key, String.valueOf(def)));
+        } catch (NumberFormatException e) {
+            System.err.println("WARNING: bad value for " + key + ", using default=" + def);
+            return def;
+        }
+    }
+
+    public static double getDouble(String key, double def) {
+        try {
+            return Double.parseDouble(getString(key, String.valueOf(def)));
+        } catch (NumberFormatException e) {
+            System.err.println("WARNING: bad value for " + key + ", using default=" + def);
+            return def;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean def) {
+        return Boolean.parseBoolean(getString(key, String.valueOf(def)));
+    }
+}
@@ -1,16 +1,23 @@
 package com.example.family;
 
+import com.google.common.base.Utf8;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
 import family.*;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.Context;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 public class NodeMain {
 
@@ -18,10 +25,22 @@ public class NodeMain {
     private static final int CLIENT_PORT = 6666;
 
     // message_id -> hangi node’larda tutuluyor
+    // (only ids whose replicas are not the ring's first `tolerance` followers,
+    // see record(); without an entry the ring says where to look)
     private static final Map<Long, List<NodeInfo>> messageLocations =
             new ConcurrentHashMap<>();
 
-    private static final AtomicInteger rrIndex = new AtomicInteger(0);
+    // recently read / written values, so hot ids skip the follower round trip
+    private static final ValueCache valueCache = new ValueCache(
+            NodeConfig.getLong("valueCacheBytes", 64L * 1024 * 1024),
+            NodeConfig.getLong("valueCacheMaxValueBytes", 1024 * 1024));
+
+    // SETs with a hint still out (HintedHandoff): the replica joins holders when it is replayed
+    private static final Map<Long, PendingSet> hintedSets = new ConcurrentHashMap<>();
+
+    private static final long SCAN_DEADLINE_MS = NodeConfig.getLong("scanDeadlineMs", 30000);
+    private static final int SCAN_DEFAULT_LIMIT = NodeConfig.getInt("scanDefaultLimit", 1000);
+    private static final int SCAN_MAX_LIMIT = NodeConfig.getInt("scanMaxLimit", 10000);
 
     public static void main(String[] args) throws Exception {
 
@@ -42,22 +61,44 @@ public class NodeMain {
         }
 
         NodeRegistry registry = new NodeRegistry();
+        registry.addListener(PeerChannels.registryListener(self));
 
         FamilyServiceImpl service = new FamilyServiceImpl(registry, self, isLeader);
 
-        Server server = ServerBuilder
+        ServerBuilder<?> serverBuilder = ServerBuilder
                 .forPort(port)
-                .addService(service)
-                .build()
-                .start();
+                .addService(ServerInterceptors.intercept(service, Compression.server()))
+                // peers ping their pooled channels (PeerChannels)
+                .permitKeepAliveTime(PeerChannels.KEEPALIVE_SECONDS, TimeUnit.SECONDS)
+                .permitKeepAliveWithoutCalls(true);
+
+        if (Workers.virtual()) {
+            serverBuilder.executor(Workers.perTask());
+        }
+
+        Server server = serverBuilder.build().start();
 
         System.out.printf("Node started at %s:%d%n", host, port);
+        if (Workers.virtual()) System.out.println("Virtual threads enabled");
 
         discoverExistingNodes(host, port, registry, self);
         startFamilyPrinter(registry);
 
         if (isLeader) {
+            LeaderMetrics.gauge("placement.recorded", messageLocations::size);
+            LeaderMetrics.gauge("cache.hits", valueCache::hits);
+            LeaderMetrics.gauge("cache.misses", valueCache::misses);
+            LeaderMetrics.gauge("cache.hitRatioPct", () -> {
+                long h = valueCache.hits(), total = h + valueCache.misses();
+                return total == 0 ? 0 : 100 * h / total;
+            });
+            LeaderMetrics.gauge("cache.bytes", valueCache::bytes);
+            LeaderMetrics.gauge("cache.entries", valueCache::entries);
+            if (FollowerStats.LOAD_AWARE) FollowerStats.start(registry, self);
+            HintedHandoff.start(NodeMain::hintReplayed);
+            KeyFilter.start(registry, self);
             startLeaderTextListener(registry, self, tolerance);
+            startLeaderBinaryListener(registry, self, tolerance);
             startLeaderStatsPrinter();
         }
 
@@ -70,151 +111,1000 @@ public class NodeMain {
 
     private static void startLeaderTextListener(NodeRegistry registry,
                                                 NodeInfo self,
-                                                int tolerance) {
+                                                int tolerance) throws IOException {
+
+        String mode = NodeConfig.getString("clientIo", "nio");
+        int pipelineDepth = NodeConfig.getInt("pipelineDepth", 32);
+        int acceptors = NodeConfig.getInt("acceptorThreads", 1);
+
+        ExecutorService workers = Workers.pool(
+                NodeConfig.getInt("workerThreads", 64));
+        if (workers instanceof ThreadPoolExecutor) {
+            // admitted commands waiting for a worker thread
+            LeaderMetrics.gauge("workers.queued",
+                    () -> ((ThreadPoolExecutor) workers).getQueue().size());
+        }
+        Function<String, String> handler =
+                line -> handleCommand(line, registry, self, tolerance);
+        LeaderStore store = leaderStore(registry, self, tolerance);
+
+        if (mode.equalsIgnoreCase("nio")) {
+            new NioTextListener(
+                    CLIENT_PORT,
+                    acceptors,
+                    NodeConfig.getInt("ioThreads", 2),
+                    NodeConfig.getInt("maxLineBytes", 8 * 1024 * 1024),
+                    pipelineDepth,
+                    handler,
+                    store,
+                    workers
+            ).start();
+            return;
+        }
+
+        ExecutorService clientThreads = Workers.perTask();
+
+        ClientAcceptors.start("blocking", CLIENT_PORT, acceptors, ch ->
+                clientThreads.execute(() ->
+                        handleClient(ch.socket(), handler, store, workers, pipelineDepth)
+                )
+        );
+    }
+
+    private static void startLeaderBinaryListener(NodeRegistry registry,
+                                                  NodeInfo self,
+                                                  int tolerance) {
+
+        int port = NodeConfig.getInt("binaryPort", 6667);
+        if (port <= 0) return;
 
-        new Thread(() -> {
-            try (ServerSocket serverSocket = new ServerSocket(CLIENT_PORT)) {
-                System.out.println("Leader listening on TCP " + CLIENT_PORT);
+        new BinaryListener(
+                port,
+                NodeConfig.getInt("maxValueBytes", 64 * 1024 * 1024),
+                leaderStore(registry, self, tolerance)
+        ).start();
+    }
+
+    private static LeaderStore leaderStore(NodeRegistry registry,
+                                           NodeInfo self,
+                                           int tolerance) {
+        return new LeaderStore() {
+            @Override
+            public boolean set(long id, ByteString value, int w) {
+                return replicateSet(registry, self, id, value, tolerance, w);
+            }
+
+            @Override
+            public ByteString get(long id) {
+                return fetchValue(registry, self, id, tolerance);
+            }
+
+            @Override
+            public boolean setStream(long id, long size, InputStream in, int w) throws IOException {
+                return replicateStream(registry, self, id, size, in, tolerance, w);
+            }
 
-                while (true) {
-                    Socket client = serverSocket.accept();
-                    new Thread(() ->
-                            handleClient(client, registry, self, tolerance)
-                    ).start();
+            @Override
+            public boolean getStream(long id, ValueSink sink) throws IOException {
+                ByteString cached = valueCache.get(id);
+                if (cached != null) {
+                    sink.begin(cached.size());
+                    sink.write(cached);
+                    return true;
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
+                return readValue(registry, self, id, tolerance, sink);
             }
-        }).start();
+
+            @Override
+            public int scan(long from, long to, int limit, EntrySink sink) throws IOException {
+                return scanRange(registry, self, from, to, limit, tolerance, sink);
+            }
+        };
     }
 
+    // Reads lines back-to-back; up to pipelineDepth commands run concurrently
+    // and OrderedReplyWriter sends the replies in request order.
     private static void handleClient(Socket client,
-                                     NodeRegistry registry,
-                                     NodeInfo self,
-                                     int tolerance) {
+                                     Function<String, String> handler,
+                                     LeaderStore store,
+                                     Executor workers,
+                                     int pipelineDepth) {
+
+        LeaderMetrics.add("connections.open", 1);
+        CommandPipeline pipeline = new CommandPipeline(handler, store, workers);
 
         try (BufferedReader in = new BufferedReader(
                 new InputStreamReader(client.getInputStream()));
-             PrintWriter out = new PrintWriter(
-                     client.getOutputStream(), true)) {
+             Writer out = new BufferedWriter(
+                     new OutputStreamWriter(client.getOutputStream()))) {
+
+            OrderedReplyWriter replies = new OrderedReplyWriter(client, out, pipelineDepth);
 
             String line;
             while ((line = in.readLine()) != null) {
+                replies.awaitSlot();
 
-                String[] parts = line.split(" ", 3);
-                String cmd = parts[0].toUpperCase();
+                // Admission budgets bytes: a char of a value can be up to 3 of them
+                long bytes = Utf8.encodedLength(line);
+                if (!Admission.tryAcquire(bytes)) {
+                    replies.add(CompletableFuture.completedFuture("BUSY"));
+                    continue;
+                }
+                CompletableFuture<String> reply = pipeline.submit(line);
+                reply.whenComplete((r, e) -> Admission.release(bytes));
+                replies.add(reply);
+            }
+            replies.awaitDrained();
 
-                if (cmd.equals("SET")) {
-                    long id = Long.parseLong(parts[1]);
-                    String value = parts[2];
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            LeaderMetrics.add("connections.open", -1);
+        }
+    }
 
-                    boolean ok = replicateSet(registry, self, id, value, tolerance);
-                    out.println(ok ? "OK" : "ERROR");
+    // One text command -> one reply line (null = no reply).
+    // Shared by the blocking and the nio listener.
+    static String handleCommand(String line,
+                                NodeRegistry registry,
+                                NodeInfo self,
+                                int tolerance) {
 
-                } else if (cmd.equals("GET")) {
-                    long id = Long.parseLong(parts[1]);
+        String[] parts = line.split(" ", 3);
+        String cmd = parts[0].toUpperCase();
 
-                    String val = fetchValue(registry, id);
-                    out.println(val == null
-                            ? "NOT_FOUND"
-                            : "VALUE " + id + " " + val);
+        if (cmd.equals("SET")) {
+            long id = Long.parseLong(parts[1]);
+
+            // optional last token "W=<level>" (see WriteConsistency)
+            String text = parts[2];
+            int w = WriteConsistency.DEFAULT;
+            int last = text.lastIndexOf(' ');
+            if (last > 0) {
+                int opt = WriteConsistency.option(text.substring(last + 1));
+                if (opt != WriteConsistency.NOT_GIVEN) {
+                    w = opt;
+                    text = text.substring(0, last);
                 }
             }
+            ByteString value = ByteString.copyFromUtf8(text);
 
-        } catch (Exception e) {
-            e.printStackTrace();
+            boolean ok = replicateSet(registry, self, id, value, tolerance, w);
+            return ok ? "OK" : "ERROR";
+
+        } else if (cmd.equals("GET")) {
+            long id = Long.parseLong(parts[1]);
+
+            ByteString val = fetchValue(registry, self, id, tolerance);
+            return val == null
+                    ? "NOT_FOUND"
+                    : "VALUE " + id + " " + val.toStringUtf8();
+
+        } else if (cmd.equals("MSET")) {
+            // MSET id1 v1 id2 v2 ...  -> RESULTS OK ERROR ...  (one status per pair)
+            String[] tokens = line.split(" ");
+            if (tokens.length < 3 || tokens.length % 2 == 0) {
+                throw new IllegalArgumentException("MSET needs id/value pairs");
+            }
+
+            int n = (tokens.length - 1) / 2;
+            long[] ids = new long[n];
+            ByteString[] values = new ByteString[n];
+            for (int i = 0; i < n; i++) {
+                ids[i] = Long.parseLong(tokens[1 + 2 * i]);
+                values[i] = ByteString.copyFromUtf8(tokens[2 + 2 * i]);
+            }
+
+            boolean[] ok = replicateBatch(registry, self, ids, values, tolerance);
+
+            StringBuilder sb = new StringBuilder("RESULTS");
+            for (boolean b : ok) sb.append(b ? " OK" : " ERROR");
+            return sb.toString();
+
+        } else if (cmd.equals("MGET")) {
+            // MGET id1 id2 ...  -> "VALUES n" then one VALUE / NOT_FOUND line per id
+            String[] tokens = line.split(" ");
+            if (tokens.length < 2) {
+                throw new IllegalArgumentException("MGET needs ids");
+            }
+
+            long[] ids = new long[tokens.length - 1];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = Long.parseLong(tokens[i + 1]);
+            }
+
+            ByteString[] vals = fetchBatch(registry, self, ids, tolerance);
+
+            StringBuilder sb = new StringBuilder("VALUES ").append(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                sb.append('\n');
+                if (vals[i] == null) sb.append("NOT_FOUND ").append(ids[i]);
+                else sb.append("VALUE ").append(ids[i]).append(' ').append(vals[i].toStringUtf8());
+            }
+            return sb.toString();
+
+        } else if (cmd.equals("SCAN")) {
+            // SCAN from to [limit]  -> "VALUES n" then one VALUE line per id, ids ascending;
+            // n == limit means there may be more: go on from the last id + 1
+            String[] tokens = line.split(" ");
+            if (tokens.length < 3 || tokens.length > 4) {
+                throw new IllegalArgumentException("SCAN needs from, to and an optional limit");
+            }
+
+            long from = Long.parseLong(tokens[1]);
+            long to = Long.parseLong(tokens[2]);
+            int limit = tokens.length == 4 ? Integer.parseInt(tokens[3]) : SCAN_DEFAULT_LIMIT;
+            // the reply is one string: bounded, unlike the binary SCAN
+            limit = Math.min(limit > 0 ? limit : SCAN_DEFAULT_LIMIT, SCAN_MAX_LIMIT);
+
+            StringBuilder body = new StringBuilder();
+            int n;
+            try {
+                n = scanRange(registry, self, from, to, limit, tolerance, (id, value) ->
+                        body.append('\n').append("VALUE ").append(id).append(' ').append(value.toStringUtf8()));
+            } catch (IOException e) {
+                return "ERROR";
+            }
+            return "VALUES " + n + body;
+
+        } else if (cmd.equals("STATS")) {
+            return "STATS " + LeaderMetrics.render();
         }
+        return null;
     }
 
     // SET REPLICATION (LEADER)
 
-private static boolean replicateSet(NodeRegistry registry,
-                                    NodeInfo self,
-                                    long id,
-                                    String value,
-                                    int tolerance) {
+static boolean replicateSet(NodeRegistry registry,
+                            NodeInfo self,
+                            long id,
+                            ByteString value,
+                            int tolerance) {
+    return replicateSet(registry, self, id, value, tolerance, WriteConsistency.DEFAULT);
+}
 
-    List<NodeInfo> candidates = registry.snapshot()
-            .stream()
-            .filter(n -> !(n.getHost().equals(self.getHost())
-                        && n.getPort() == self.getPort()))
-            .toList();
+// w: WriteConsistency level, the SET returns after that many acks
+static boolean replicateSet(NodeRegistry registry,
+                            NodeInfo self,
+                            long id,
+                            ByteString value,
+                            int tolerance,
+                            int w) {
 
-    if (candidates.size() < tolerance) return false;
+    long version = valueCache.invalidate(id);
+    long writeVersion = WriteVersion.next();
+    KeyFilter.added(id);
+    List<NodeInfo> order = placement(registry, self, id, candidates(tolerance));
 
-    List<NodeInfo> selected = selectRoundRobin(candidates, tolerance);
-    List<NodeInfo> stored = new ArrayList<>();
+    if (order.size() < tolerance) return false;
 
-    for (NodeInfo n : selected) {
+    order = FollowerStats.arrange(PeerHealth.usable(order, tolerance), tolerance);
+    List<NodeInfo> selected = order.subList(0, tolerance);
+    int needed = WriteConsistency.acks(w, tolerance);
+    // grows with late acks too, so it is what messageLocations keeps
+    CopyOnWriteArrayList<NodeInfo> holders = new CopyOnWriteArrayList<>();
+
+    // large values: chunked StoreStream instead of one Store message
+    if (value.size() > LargeValues.STREAM_THRESHOLD_BYTES) {
         try {
-            ManagedChannel channel = ManagedChannelBuilder
-                    .forAddress(n.getHost(), n.getPort())
-                    .usePlaintext()
-                    .build();
+            uploadLarge(selected, id, writeVersion, value.size(), LargeValues.ChunkSource.of(value),
+                    needed, tolerance, holders);
+        } catch (IOException ignored) {}
+        selected = List.of();
+    }
 
-            FamilyServiceGrpc.FamilyServiceBlockingStub stub =
-                    FamilyServiceGrpc.newBlockingStub(channel);
+    if (!selected.isEmpty()) {
+        // the client's bytes go out as they are (no prefix, no charset)
+        StoredMessage msg = StoredMessage.newBuilder()
+                .setId(id)
+                .setValue(value)
+                .setVersion(writeVersion)
+                .build();
+
+        // all replicas at once: latency is the slowest needed ack, not the sum;
+        // with hedging a spare follower can stand in for a slow one
+        NodeInfo spare = null;
+        if (Hedging.enabled()) {
+            Hedging.earn();
+            spare = order.size() > tolerance ? order.get(tolerance) : null;
+        }
 
-            stub.receiveChat(
-                    ChatMessage.newBuilder()
-                            .setText("SET " + id + " " + value)
-                            .build()
-            );
+        PendingSet set = new PendingSet(msg, order, tolerance, holders);
 
-            channel.shutdownNow();
-            stored.add(n);
+        List<NodeInfo> stored = Quorum.await(selected,
+                spare,
+                set::write,
+                needed,
+                set::acked);
+        stored.forEach(set::acked);
 
-        } catch (Exception ignored) {}
+        // a hint is no copy yet: one replica at least must really have it
+        boolean ok = stored.size() >= needed && (needed == 0 || !holders.isEmpty());
+        if (ok) {
+            record(registry, self, id, holders, tolerance);
+            returnedBehind(id, holders, tolerance);
+        }
+        set.decided(ok);
+        if (!ok) {
+            WriteConsistency.caughtUp(id);
+            return false;
+        }
+        valueCache.putIf(id, value, version);
+        return true;
     }
 
-    if (stored.size() >= tolerance) {
-        messageLocations.put(id, stored);
+    if (holders.size() >= needed) {
+        record(registry, self, id, holders, tolerance);
+        returnedBehind(id, holders, tolerance);
+        valueCache.putIf(id, value, version);
         return true;
     }
+    WriteConsistency.caughtUp(id);
     return false;
 }
 
+    // a SET answered with fewer holders than tolerance: id is under-replicated
+    // until the late acks come in (they may have come in meanwhile)
+    private static void returnedBehind(long id, List<NodeInfo> holders, int tolerance) {
+        if (holders.size() >= tolerance) return;
+        WriteConsistency.behind(id);
+        if (holders.size() >= tolerance) WriteConsistency.caughtUp(id);
+    }
+
+    // One small SET's replica writes, including the ones still running after
+    // it returned. A replica that only got a hint joins holders once the hint
+    // is replayed; the hints of a failed SET are discarded. A replica that
+    // fails after an OK (ONE / QUORUM / ASYNC) is replaced by the next node in
+    // placement order, so the id does not stay under-replicated.
+    private static final class PendingSet {
+        final StoredMessage msg;
+        final List<NodeInfo> order;
+        final int tolerance;
+        final CopyOnWriteArrayList<NodeInfo> holders;
+        final Set<NodeInfo> hinted = ConcurrentHashMap.newKeySet();
+        final Set<NodeInfo> tried = ConcurrentHashMap.newKeySet();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final List<NodeInfo> failed = new ArrayList<>();
+        private Boolean ok;   // null until the SET is answered
+
+        PendingSet(StoredMessage msg, List<NodeInfo> order, int tolerance,
+                   CopyOnWriteArrayList<NodeInfo> holders) {
+            this.msg = msg;
+            this.order = order;
+            this.tolerance = tolerance;
+            this.holders = holders;
+        }
+
+        long id() {
+            return msg.getId();
+        }
+
+        ListenableFuture<?> write(NodeInfo n) {
+            tried.add(n);
+            ListenableFuture<?> f = replicaWrite(n, msg, this);
+            Futures.addCallback(f, new FutureCallback<Object>() {
+                @Override
+                public void onSuccess(Object r) {}
+
+                @Override
+                public void onFailure(Throwable t) {
+                    failed(n);
+                }
+            }, MoreExecutors.directExecutor());
+            return f;
+        }
+
+        void acked(NodeInfo n) {
+            if (hinted.contains(n)) return;
+            holders.addIfAbsent(n);
+            if (holders.size() >= tolerance) WriteConsistency.caughtUp(id());
+        }
+
+        void hinted(NodeInfo n) {
+            hinted.add(n);
+            lock.lock();
+            try {
+                if (Boolean.FALSE.equals(ok)) {
+                    HintedHandoff.discard(n, id());
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            hintedSets.merge(id(), this, (a, b) -> a.msg.getVersion() >= b.msg.getVersion() ? a : b);
+        }
+
+        void replayed(NodeInfo n) {
+            if (!hinted.remove(n)) return;
+            holders.addIfAbsent(n);
+            if (hinted.isEmpty()) hintedSets.remove(id(), this);
+        }
+
+        void decided(boolean ok) {
+            List<NodeInfo> replace;
+            lock.lock();
+            try {
+                this.ok = ok;
+                replace = List.copyOf(failed);
+                failed.clear();
+            } finally {
+                lock.unlock();
+            }
+            if (ok) {
+                hintedSets.computeIfPresent(id(), (k, p) -> p.msg.getVersion() < msg.getVersion() ? null : p);
+                replace.forEach(this::replace);
+            } else {
+                hintedSets.remove(id(), this);
+                hinted.forEach(n -> HintedHandoff.discard(n, id()));
+            }
+        }
+
+        private void failed(NodeInfo n) {
+            lock.lock();
+            try {
+                if (ok == null) {
+                    failed.add(n);
+                    return;
+                }
+                if (!ok) return;
+            } finally {
+                lock.unlock();
+            }
+            replace(n);
+        }
+
+        // the next untried node in placement order gets the value instead of n,
+        // while this SET is still the id's newest
+        private void replace(NodeInfo n) {
+            if (messageLocations.get(id()) != holders || holders.size() + hinted.size() >= tolerance) return;
+            for (NodeInfo c : order) {
+                if (!tried.add(c)) continue;
+                LeaderMetrics.increment("replication.replaced");
+                Futures.addCallback(replicaWrite(c, msg, this), new FutureCallback<Object>() {
+                    @Override
+                    public void onSuccess(Object r) {
+                        acked(c);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        failed(c);
+                    }
+                }, MoreExecutors.directExecutor());
+                return;
+            }
+        }
+    }
+
+    // a hinted replica got its value: it counts as a holder from now on
+    private static void hintReplayed(NodeInfo n, StoredMessage m) {
+        PendingSet set = hintedSets.get(m.getId());
+        if (set != null && set.msg.getVersion() == m.getVersion()) set.replayed(n);
+    }
+
+    // storeAsync with Retry; when the follower stays unreachable the message
+    // becomes a hint for it and counts as stored
+    private static ListenableFuture<?> replicaWrite(NodeInfo n, StoredMessage msg, PendingSet set) {
+        ListenableFuture<?> f = Futures.transform(
+                Retry.call(n, () -> storeAsync(n, msg)),
+                r -> {
+                    HintedHandoff.delivered(n, msg.getId());
+                    return r;
+                },
+                MoreExecutors.directExecutor());
+        if (!HintedHandoff.ENABLED) return f;
+
+        return Futures.catching(f, Exception.class, e -> {
+            if (HintedHandoff.unreachable(e) && HintedHandoff.store(n, msg)) {
+                set.hinted(n);
+                return null;
+            }
+            throw new IllegalStateException(n.getPort() + " did not store " + msg.getId(), e);
+        }, MoreExecutors.directExecutor());
+    }
+
+    // Store call that fails unless the replica really stored the value within storeDeadlineMs;
+    // batched with other clients' SETs on the follower's ReplicationLink unless replication=unary
+    private static ListenableFuture<?> storeAsync(NodeInfo n, StoredMessage msg) {
+        if (ReplicationLink.ENABLED) {
+            return PeerHealth.track(n,
+                    Deadlines.within(ReplicationLink.to(n).send(msg), Deadlines.STORE_MS),
+                    Deadlines.STORE_MS);
+        }
+        return Futures.transform(
+                PeerHealth.track(n,
+                        Deadlines.store(PeerChannels.future(n)).store(msg),
+                        Deadlines.STORE_MS),
+                r -> {
+                    if (!r.getOk()) throw new IllegalStateException(n.getPort() + " did not store " + msg.getId());
+                    return r;
+                },
+                MoreExecutors.directExecutor());
+    }
+
     // GET
 
-    private static String fetchValue(NodeRegistry registry, long id) {
+    private static ByteString fetchValue(NodeRegistry registry,
+                                         NodeInfo self,
+                                         long id,
+                                         int tolerance) {
 
-        List<NodeInfo> holders = messageLocations.get(id);
-        if (holders == null) return null;
+        ByteString cached = valueCache.get(id);
+        if (cached != null) return cached;
+        long version = valueCache.version(id);
 
-        for (NodeInfo n : holders) {
-            if (!registry.snapshot().contains(n)) continue;
+        // chunks of a streamed value are joined as a rope, not copied
+        ByteString[] value = {null};
+        try {
+            boolean found = readValue(registry, self, id, tolerance, new LeaderStore.ValueSink() {
+                @Override
+                public void begin(long size) {
+                    value[0] = ByteString.EMPTY;
+                }
+
+                @Override
+                public void write(ByteString chunk) {
+                    value[0] = value[0].concat(chunk);
+                }
+            });
+            if (!found) return null;
+            valueCache.putIf(id, value[0], version);
+            return value[0];
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Small values come back in the GetValue reply, large ones (chunked=true)
+    // are pulled with ReadStream and handed to the sink chunk by chunk.
+    private static boolean readValue(NodeRegistry registry,
+                                     NodeInfo self,
+                                     long id,
+                                     int tolerance,
+                                     LeaderStore.ValueSink sink) throws IOException {
+
+        // never SET (as far as the leader can tell): no follower is asked
+        if (!KeyFilter.mightContain(id)) return false;
+        long filterVersion = KeyFilter.version(id);
+
+        List<NodeInfo> holders = holders(registry, self, id, tolerance);
+
+        boolean[] started = {false};
+        LeaderStore.ValueSink tracked = new LeaderStore.ValueSink() {
+            @Override
+            public void begin(long size) throws IOException {
+                started[0] = true;
+                sink.begin(size);
+            }
+
+            @Override
+            public void write(ByteString chunk) throws IOException {
+                sink.write(chunk);
+            }
+        };
+
+        List<NodeInfo> live = new ArrayList<>(holders);
+        live.retainAll(registry.snapshot());
+        // a miss only counts for the negative cache when no holder was left out
+        boolean everyHolder = live.size() == holders.size();
+        boolean widened = messageLocations.containsKey(id);
+
+        while (!live.isEmpty()) {
+            // best ranked holder first, the others hedged or tried in turn (HedgedRead)
+            HedgedRead.Found found = HedgedRead.retrieve(ReadRanking.order(live), id);
+            if (found == null) return false;
+            if (found == HedgedRead.NONE && !widened) {
+                // not on its ring neighbours: it may have been placed further on
+                // the ring (or before members joined), so the other followers are asked
+                widened = true;
+                List<NodeInfo> rest = placement(registry, self, id, Integer.MAX_VALUE);
+                rest.removeAll(holders);
+                if (!rest.isEmpty()) {
+                    LeaderMetrics.increment("reads.widened");
+                    live = rest;
+                    continue;
+                }
+            }
+            if (found == HedgedRead.NONE) {
+                // no follower has it
+                if (everyHolder && !messageLocations.containsKey(id)) KeyFilter.absent(id, filterVersion);
+                return false;
+            }
 
+            if (!found.response.getChunked()) {
+                ByteString val = found.response.getValue();
+                tracked.begin(val.size());
+                tracked.write(val);
+                return true;
+            }
             try {
-                ManagedChannel channel = ManagedChannelBuilder
-                        .forAddress(n.getHost(), n.getPort())
-                        .usePlaintext()
-                        .build();
+                if (LargeValues.download(found.node, id, tracked)) return true;
+            } catch (Exception e) {
+                // part of the value is already out, another replica can't take over
+                if (started[0]) throw new IOException("GET " + id + " failed midway", e);
+            }
+            live.remove(found.node);
+            everyHolder = false;
+        }
+        return false;
+    }
+
+    // LARGE SET (LEADER): value read from the client socket and streamed on,
+    // never held as a whole
 
+    private static boolean replicateStream(NodeRegistry registry,
+                                           NodeInfo self,
+                                           long id,
+                                           long size,
+                                           InputStream in,
+                                           int tolerance,
+                                           int w) throws IOException {
+
+        valueCache.invalidate(id);
+        KeyFilter.added(id);
+        List<NodeInfo> order = placement(registry, self, id, candidates(tolerance));
+
+        if (order.size() < tolerance) {
+            in.skipNBytes(size);
+            return false;
+        }
+
+        List<NodeInfo> selected = FollowerStats.arrange(PeerHealth.usable(order, tolerance), tolerance)
+                .subList(0, tolerance);
+        int needed = WriteConsistency.acks(w, tolerance);
+        CopyOnWriteArrayList<NodeInfo> holders = new CopyOnWriteArrayList<>();
+        uploadLarge(selected, id, WriteVersion.next(), size, LargeValues.ChunkSource.of(in),
+                needed, tolerance, holders);
+
+        if (holders.size() >= needed) {
+            record(registry, self, id, holders, tolerance);
+            returnedBehind(id, holders, tolerance);
+            return true;
+        }
+        WriteConsistency.caughtUp(id);
+        return false;
+    }
+
+    // Every chunk goes to all selected replicas; returns once `needed` of them
+    // stored the value, the others are added to holders as they ack.
+    private static void uploadLarge(List<NodeInfo> selected,
+                                    long id,
+                                    long writeVersion,
+                                    long size,
+                                    LargeValues.ChunkSource source,
+                                    int needed,
+                                    int tolerance,
+                                    CopyOnWriteArrayList<NodeInfo> holders) throws IOException {
+
+        Map<NodeInfo, ListenableFuture<Void>> acks = LargeValues.send(selected, id, writeVersion, size, source);
+
+        List<NodeInfo> stored = Quorum.await(selected, acks::get, needed, n -> {
+            holders.addIfAbsent(n);
+            if (holders.size() >= tolerance) WriteConsistency.caughtUp(id);
+        });
+        holders.addAllAbsent(stored);
+        if (holders.size() >= tolerance) WriteConsistency.caughtUp(id);
+    }
+
+    // MSET (LEADER): same placement as single SETs, but StoreBatches per follower
+    // of at most batchMaxBytes; large values are chunked like a single SET
+
+    private static boolean[] replicateBatch(NodeRegistry registry,
+                                            NodeInfo self,
+                                            long[] ids,
+                                            ByteString[] values,
+                                            int tolerance) {
+
+        boolean[] ok = new boolean[ids.length];
+        long[] versions = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            if (large(values[i])) continue;
+            versions[i] = valueCache.invalidate(ids[i]);
+            KeyFilter.added(ids[i]);
+        }
+
+        Map<NodeInfo, List<StoredBatch.Builder>> perNode = new LinkedHashMap<>();
+        Map<NodeInfo, Long> lastBytes = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (large(values[i])) continue;
+            StoredMessage m = StoredMessage.newBuilder()
+                    .setId(ids[i])
+                    .setValue(values[i])
+                    .setVersion(WriteVersion.next())
+                    .build();
+
+            List<NodeInfo> order = placement(registry, self, ids[i], candidates(tolerance));
+            if (order.size() < tolerance) return ok;
+
+            order = FollowerStats.arrange(PeerHealth.usable(order, tolerance), tolerance);
+            for (NodeInfo n : order.subList(0, tolerance)) {
+                List<StoredBatch.Builder> parts = perNode.computeIfAbsent(n, k -> new ArrayList<>());
+                long bytes = lastBytes.getOrDefault(n, 0L) + values[i].size();
+                if (parts.isEmpty() || bytes > LargeValues.BATCH_MAX_BYTES) {
+                    parts.add(StoredBatch.newBuilder());
+                    bytes = values[i].size();
+                }
+                parts.get(parts.size() - 1).addMessages(m);
+                lastBytes.put(n, bytes);
+            }
+        }
+
+        Map<Long, List<NodeInfo>> stored = new HashMap<>();
+
+        for (Map.Entry<NodeInfo, List<StoredBatch.Builder>> e : perNode.entrySet()) {
+            NodeInfo n = e.getKey();
+            FamilyServiceGrpc.FamilyServiceBlockingStub stub =
+                    Deadlines.store(PeerChannels.blocking(n));
+            for (StoredBatch.Builder part : e.getValue()) {
+                try {
+                    BatchStoreResult result = PeerHealth.call(n, Deadlines.STORE_MS,
+                            () -> stub.storeBatch(part.build()));
+
+                    for (long id : result.getStoredIdsList()) {
+                        List<NodeInfo> holders = stored.computeIfAbsent(id, k -> new ArrayList<>());
+                        if (!holders.contains(n)) holders.add(n);
+                    }
+
+                } catch (Exception ignored) {}
+            }
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            List<NodeInfo> holders = stored.get(ids[i]);
+            if (holders != null && holders.size() >= tolerance) {
+                record(registry, self, ids[i], holders, tolerance);
+                valueCache.putIf(ids[i], values[i], versions[i]);
+                ok[i] = true;
+            }
+        }
+
+        for (int i = 0; i < ids.length; i++) {
+            if (large(values[i])) ok[i] = replicateSet(registry, self, ids[i], values[i], tolerance);
+        }
+        return ok;
+    }
+
+    private static boolean large(ByteString value) {
+        return value.size() > LargeValues.STREAM_THRESHOLD_BYTES;
+    }
+
+    // MGET (LEADER): ids grouped by their best ranked live holder (ReadRanking),
+    // one RetrieveBatch per follower
+
+    private static ByteString[] fetchBatch(NodeRegistry registry,
+                                           NodeInfo self,
+                                           long[] ids,
+                                           int tolerance) {
+
+        ByteString[] vals = new ByteString[ids.length];
+        long[] versions = new long[ids.length];
+        boolean[] wanted = new boolean[ids.length];
+        List<NodeInfo> live = registry.snapshot();
+
+        Map<NodeInfo, List<Integer>> perNode = new LinkedHashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            vals[i] = valueCache.get(ids[i]);
+            if (vals[i] != null || !KeyFilter.mightContain(ids[i])) continue;
+            versions[i] = valueCache.version(ids[i]);
+            wanted[i] = true;
+
+            List<NodeInfo> candidates = new ArrayList<>(holders(registry, self, ids[i], tolerance));
+            candidates.retainAll(live);
+            NodeInfo n = ReadRanking.best(candidates);
+            if (n != null) perNode.computeIfAbsent(n, k -> new ArrayList<>()).add(i);
+        }
+
+        for (Map.Entry<NodeInfo, List<Integer>> e : perNode.entrySet()) {
+            NodeInfo n = e.getKey();
+            try {
                 FamilyServiceGrpc.FamilyServiceBlockingStub stub =
-                        FamilyServiceGrpc.newBlockingStub(channel);
+                        Deadlines.get(PeerChannels.blocking(n));
 
-                GetResponse resp = stub.getValue(
-                        GetRequest.newBuilder().setId(id).build());
+                IdBatch.Builder req = IdBatch.newBuilder();
+                for (int i : e.getValue()) req.addIds(ids[i]);
 
-                channel.shutdownNow();
+                ReadRanking.begin(n);
+                long start = System.nanoTime();
+                StoredBatch found;
+                try {
+                    found = PeerHealth.call(n, Deadlines.GET_MS,
+                            () -> stub.retrieveBatch(req.build()));
+                } catch (RuntimeException ex) {
+                    ReadRanking.failed(n, false);
+                    throw ex;
+                }
+                ReadRanking.end(n, System.nanoTime() - start);
 
-                if (resp.getFound()) return resp.getValue();
+                Map<Long, ByteString> byId = new HashMap<>();
+                for (StoredMessage m : found.getMessagesList()) byId.put(m.getId(), m.getValue());
+                for (int i : e.getValue()) {
+                    vals[i] = byId.get(ids[i]);
+                    if (vals[i] != null) valueCache.putIf(ids[i], vals[i], versions[i]);
+                }
 
             } catch (Exception ignored) {}
         }
-        return null;
+
+        // whatever the first holder could not serve: the single GET path tries the
+        // others. That covers large values too (a RetrieveBatch leaves them out)
+        // and ids without a record here, which may be on another ring node.
+        for (int i = 0; i < ids.length; i++) {
+            if (vals[i] == null && wanted[i]) {
+                vals[i] = fetchValue(registry, self, ids[i], tolerance);
+            }
+        }
+        return vals;
+    }
+
+    // SCAN (LEADER): followers stream their ids in [from, to] in order; the
+    // streams are merged k-way and an id held by several replicas goes out
+    // once. Every id is on `tolerance` followers, so any members - tolerance + 1
+    // of them see all ids: the best ranked (ReadRanking) are asked, the rest
+    // take over a stream that fails, from where it got to. While an id of the
+    // range is under-replicated (WriteConsistency) every follower is asked. Large
+    // values (chunked) are read like a GET and streamed to the sink.
+
+    private static int scanRange(NodeRegistry registry,
+                                 NodeInfo self,
+                                 long from,
+                                 long to,
+                                 int limit,
+                                 int tolerance,
+                                 LeaderStore.EntrySink sink) throws IOException {
+
+        if (limit <= 0) limit = Integer.MAX_VALUE;
+        LeaderMetrics.increment("scan.requests");
+
+        // no follower sends more than the limit: the merged first `limit` are among them
+        ScanRequest req = ScanRequest.newBuilder()
+                .setFrom(from)
+                .setTo(to)
+                .setLimit(limit == Integer.MAX_VALUE ? 0 : limit)
+                .build();
+
+        List<NodeInfo> followers = new ArrayList<>(registry.snapshot());
+        followers.remove(self);
+        followers = ReadRanking.order(followers);
+        int asked = WriteConsistency.anyBehind(from, to)
+                ? followers.size()
+                : Math.min(followers.size(), Math.max(1, followers.size() - tolerance + 1));
+        Deque<NodeInfo> spares = new ArrayDeque<>(followers.subList(asked, followers.size()));
+        LeaderMetrics.add("scan.streams", asked);
+
+        // every stream is cancelled on the way out, also when the limit ends the merge early
+        Context.CancellableContext call = Context.current().withCancellation();
+        Context previous = call.attach();
+        try {
+            PriorityQueue<ScanStream> heads =
+                    new PriorityQueue<>(Comparator.comparingLong((ScanStream s) -> s.head.getId()));
+            for (NodeInfo n : followers.subList(0, asked)) {
+                openScan(n, req, spares, heads);
+            }
+
+            int sent = 0;
+            long last = 0;
+            boolean any = false;
+            while (!heads.isEmpty() && sent < limit) {
+                ScanStream s = heads.poll();
+                ScanEntry e = s.head;
+                if (s.advance()) {
+                    heads.add(s);
+                } else if (s.failed) {
+                    // its ids after e: a spare streams them (e again is skipped below)
+                    openScan(spares.poll(), req.toBuilder().setFrom(e.getId()).build(), spares, heads);
+                }
+
+                // the merge is in id order, so replicas of an id come one after the other
+                if (any && e.getId() == last) continue;
+                last = e.getId();
+                any = true;
+
+                if (e.getChunked()) {
+                    LeaderStore.ValueSink value = sink.value(e.getId());
+                    if (!readValue(registry, self, e.getId(), tolerance, value)) continue;
+                    value.end();
+                } else {
+                    sink.entry(e.getId(), e.getValue());
+                }
+                sent++;
+            }
+            LeaderMetrics.add("scan.entries", sent);
+            return sent;
+
+        } finally {
+            call.detach(previous);
+            call.cancel(null);
+        }
+    }
+
+    // n's Scan stream into the merge; when it fails before its first entry the
+    // next spare is asked instead
+    private static void openScan(NodeInfo n,
+                                 ScanRequest req,
+                                 Deque<NodeInfo> spares,
+                                 PriorityQueue<ScanStream> heads) {
+        while (n != null) {
+            ScanStream s = new ScanStream(n, PeerChannels.blocking(n)
+                    .withDeadlineAfter(SCAN_DEADLINE_MS, TimeUnit.MILLISECONDS)
+                    .scan(req));
+            if (s.advance()) {
+                heads.add(s);
+                return;
+            }
+            if (!s.failed) return;
+            n = spares.poll();
+        }
+    }
+
+    // one follower's Scan stream and the entry at its head
+    private static final class ScanStream {
+        final NodeInfo node;
+        final Iterator<ScanEntry> it;
+        ScanEntry head;
+        boolean failed;
+
+        ScanStream(NodeInfo node, Iterator<ScanEntry> it) {
+            this.node = node;
+            this.it = it;
+        }
+
+        // false when the stream is done, or failed (then `failed` is set)
+        boolean advance() {
+            try {
+                if (!it.hasNext()) return false;
+                head = it.next();
+                return true;
+            } catch (RuntimeException e) {
+                failed = true;
+                LeaderMetrics.increment("scan.streamErrors");
+                System.err.println("SCAN stream from " + node.getPort() + " failed: " + e.getMessage());
+                return false;
+            }
+        }
     }
 
     // UTIL
     
-    private static List<NodeInfo> selectRoundRobin(List<NodeInfo> list, int k) {
-        List<NodeInfo> res = new ArrayList<>();
-        int start = rrIndex.getAndAdd(k);
+    // the first `count` followers in the order the hash ring gives them for id
+    // (FollowerStats.arrange picks the replicas among the first ones)
+    private static List<NodeInfo> placement(NodeRegistry registry, NodeInfo self, long id, int count) {
+        // one more: the leader may be among them
+        int walk = (int) Math.min(Integer.MAX_VALUE, count + 1L);
+        List<NodeInfo> order = new ArrayList<>(registry.ring().walk(id, walk));
+        if (!order.remove(self) && order.size() > count) order.remove(count);
+        return order;
+    }
+
+    // followers a SET picks its replicas from: the P2C spread, as many again
+    // to stand in for ejected or failed ones, and the hedge spare
+    private static int candidates(int tolerance) {
+        return FollowerStats.spread(tolerance) + tolerance + (Hedging.enabled() ? 1 : 0);
+    }
+
+    // where id is: the replicas that acked its SET, or the ring neighbours it
+    // could have been placed on when the leader has no record (it went to the
+    // ring's first ones, or was SET before a leader restart). A GET that finds
+    // none of those asks the other followers too (readValue)
+    private static List<NodeInfo> holders(NodeRegistry registry, NodeInfo self, long id, int tolerance) {
+        List<NodeInfo> known = messageLocations.get(id);
+        if (known != null) return known;
+
+        return placement(registry, self, id, FollowerStats.spread(tolerance));
+    }
 
-        for (int i = 0; i < k; i++) {
-            res.add(list.get((start + i) % list.size()));
+    // Keeps where id's replicas are unless the ring says so by itself: all
+    // `tolerance` of them acked and they are its first followers. Anything
+    // else (a replica skipped as ejected, failed, hinted, still behind, picked
+    // by loadAware or a spare) is recorded; a record of an older SET goes.
+    private static void record(NodeRegistry registry, NodeInfo self, long id,
+                               List<NodeInfo> holders, int tolerance) {
+        List<NodeInfo> order = placement(registry, self, id, tolerance);
+        if (holders.size() == tolerance && order.size() >= tolerance
+                && new HashSet<>(order.subList(0, tolerance)).equals(new HashSet<>(holders))) {
+            messageLocations.remove(id);
+        } else {
+            messageLocations.put(id, holders);
         }
-        return res;
     }
 
     private static void discoverExistingNodes(String host,
@@ -223,20 +1113,14 @@ private static boolean replicateSet(NodeRegistry registry,
                                               NodeInfo self) {
 
         for (int port = START_PORT; port < selfPort; port++) {
+            NodeInfo peer = NodeInfo.newBuilder().setHost(host).setPort(port).build();
             try {
-                ManagedChannel channel = ManagedChannelBuilder
-                        .forAddress(host, port)
-                        .usePlaintext()
-                        .build();
-
-                FamilyServiceGrpc.FamilyServiceBlockingStub stub =
-                        FamilyServiceGrpc.newBlockingStub(channel);
-
-                FamilyView view = stub.join(self);
+                FamilyView view = Deadlines.join(PeerChannels.blocking(peer)).join(self);
                 registry.addAll(view.getMembersList());
-
-                channel.shutdownNow();
-            } catch (Exception ignored) {}
+            } catch (Exception e) {
+                // nobody (or not one of us) on that port
+                PeerChannels.evict(peer);
+            }
         }
     }
 
@@ -264,7 +1148,8 @@ private static boolean replicateSet(NodeRegistry registry,
         Executors.newSingleThreadScheduledExecutor()
                 .scheduleAtFixedRate(() -> {
                     System.out.println("---- LEADER STATS ----");
-                    System.out.println("Messages stored: " + messageLocations.size());
+                    System.out.println("Placements recorded: " + messageLocations.size());
+                    System.out.println(LeaderMetrics.render());
                 }, 5, 10, TimeUnit.SECONDS);
     }
 }
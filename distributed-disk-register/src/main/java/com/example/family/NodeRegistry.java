@@ -6,17 +6,40 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class NodeRegistry {
 
+    /** Told about nodes entering/leaving the family (e.g. PeerChannels). */
+    public interface Listener {
+        void added(NodeInfo node);
+        void removed(NodeInfo node);
+    }
+
     private final Set<NodeInfo> nodes = ConcurrentHashMap.newKeySet();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final HashRing ring = new HashRing(NodeConfig.getInt("ringVirtualNodes", 1024));
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
 
     public void add(NodeInfo node) {
-        nodes.add(node);
+        if (nodes.add(node)) {
+            ring.add(node);
+            listeners.forEach(l -> l.added(node));
+        }
     }
 
     public void addAll(Collection<NodeInfo> others) {
-        nodes.addAll(others);
+        for (NodeInfo n : others) {
+            add(n);
+        }
+    }
+
+    /** Replica placement over the current members (see HashRing). */
+    public HashRing ring() {
+        return ring;
     }
 
     public List<NodeInfo> snapshot() {
@@ -24,6 +47,9 @@ public class NodeRegistry {
     }
 
     public void remove(NodeInfo node) {
-        nodes.remove(node);
+        if (nodes.remove(node)) {
+            ring.remove(node);
+            listeners.forEach(l -> l.removed(node));
+        }
     }
 }
@@ -0,0 +1,103 @@
+package com.example.family;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reply side of a pipelined blocking connection.
+ *
+ * The reader thread reserves a slot and queues the command's future; whichever
+ * thread completes the head future writes every finished reply in request order.
+ * At most `depth` commands are in flight per connection.
+ */
+public class OrderedReplyWriter {
+
+    private final Socket socket;
+    private final Writer out;
+    private final int depth;
+    private final Semaphore window;
+
+    // ReentrantLock, not synchronized: writes may block and must not pin virtual threads
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<CompletableFuture<String>> queue = new ArrayDeque<>();
+
+    public OrderedReplyWriter(Socket socket, Writer out, int depth) {
+        this.socket = socket;
+        this.out = out;
+        this.depth = Math.max(1, depth);
+        this.window = new Semaphore(this.depth);
+    }
+
+    /** Blocks the reader while the connection already has `depth` commands in flight. */
+    public void awaitSlot() throws InterruptedException {
+        if (window.tryAcquire()) return;
+        Admission.queued();
+        window.acquire();
+    }
+
+    public void add(CompletableFuture<String> reply) {
+        lock.lock();
+        try {
+            queue.add(reply);
+        } finally {
+            lock.unlock();
+        }
+        reply.whenComplete((r, e) -> drain());
+    }
+
+    /** Waits until every queued reply has been written. */
+    public void awaitDrained() throws InterruptedException {
+        window.acquire(depth);
+        window.release(depth);
+    }
+
+    private void drain() {
+        lock.lock();
+        try {
+            while (!queue.isEmpty() && queue.peek().isDone()) {
+                CompletableFuture<String> f = queue.poll();
+                window.release();
+
+                String reply;
+                try {
+                    reply = f.join();
+                } catch (CompletionException e) {
+                    // a bad command drops the connection (reader sees the closed socket)
+                    e.getCause().printStackTrace();
+                    closeQuietly();
+                    continue;
+                }
+
+                if (reply != null && !socket.isClosed()) {
+                    try {
+                        out.write(reply);
+                        out.write('\n');
+                    } catch (IOException e) {
+                        closeQuietly();
+                    }
+                }
+            }
+
+            if (!socket.isClosed()) {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    closeQuietly();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeQuietly() {
+        try { socket.close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.family;
+
+import family.FamilyServiceGrpc;
+import family.NodeInfo;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One long-lived gRPC channel per peer, shared by every request to it.
+ *
+ * A channel multiplexes concurrent calls over one HTTP/2 connection, so SET/GET
+ * no longer pay TCP + HTTP/2 setup each time. Channels are opened when a node
+ * joins (warm), reconnect by themselves after a peer restart, and are shut down
+ * when the node leaves the registry. Keepalive pings detect dead peers on idle
+ * connections (the server side allows them, see NodeMain). Large payloads are
+ * compressed on the way out (Compression).
+ */
+public final class PeerChannels {
+
+    public static final long KEEPALIVE_SECONDS = NodeConfig.getLong("peerKeepAliveSeconds", 30);
+
+    private static final Map<NodeInfo, ManagedChannel> channels = new ConcurrentHashMap<>();
+
+    static {
+        LeaderMetrics.gauge("peers.channels", channels::size);
+    }
+
+    private PeerChannels() {}
+
+    public static ManagedChannel get(NodeInfo n) {
+        return channels.computeIfAbsent(n, k -> ManagedChannelBuilder
+                .forAddress(k.getHost(), k.getPort())
+                .usePlaintext()
+                .keepAliveTime(KEEPALIVE_SECONDS, TimeUnit.SECONDS)
+                .keepAliveTimeout(10, TimeUnit.SECONDS)
+                .keepAliveWithoutCalls(true)
+                .intercept(Compression.client())
+                .build());
+    }
+
+    public static FamilyServiceGrpc.FamilyServiceBlockingStub blocking(NodeInfo n) {
+        return FamilyServiceGrpc.newBlockingStub(get(n));
+    }
+
+    public static FamilyServiceGrpc.FamilyServiceFutureStub future(NodeInfo n) {
+        return FamilyServiceGrpc.newFutureStub(get(n));
+    }
+
+    public static FamilyServiceGrpc.FamilyServiceStub async(NodeInfo n) {
+        return FamilyServiceGrpc.newStub(get(n));
+    }
+
+    /** Starts connecting now, so the first request doesn't pay for it. */
+    public static void warm(NodeInfo n) {
+        get(n).getState(true);
+    }
+
+    public static void evict(NodeInfo n) {
+        ManagedChannel ch = channels.remove(n);
+        if (ch != null) ch.shutdown();
+    }
+
+    /** Keeps the pool in line with the registry; self is never dialled. */
+    public static NodeRegistry.Listener registryListener(NodeInfo self) {
+        return new NodeRegistry.Listener() {
+            @Override
+            public void added(NodeInfo n) {
+                if (!n.equals(self)) warm(n);
+            }
+
+            @Override
+            public void removed(NodeInfo n) {
+                ReplicationLink.close(n);
+                PeerHealth.forget(n);
+                FollowerStats.forget(n);
+                ReadRanking.forget(n);
+                evict(n);
+            }
+        };
+    }
+}
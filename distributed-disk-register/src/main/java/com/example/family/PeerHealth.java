@@ -0,0 +1,197 @@
+package com.example.family;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import family.Empty;
+import family.NodeInfo;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Per-peer RPC latency (EWMA) and temporary ejection of slow followers.
+ *
+ * Every timed leader -> follower call feeds its peer's EWMA; a call that ran
+ * into its deadline or found the peer unavailable counts as taking the whole
+ * deadline. Once a peer has peerEjectMinSamples samples and its EWMA is above
+ * peerEjectLatencyMs it is ejected: replica selection leaves it out (unless
+ * that leaves fewer followers than the SET needs). After peerEjectSeconds a
+ * prober sends it a Probe every peerProbeIntervalMs (a small write and read in
+ * its store dir, so a stalled disk keeps it slow); those probes are the only
+ * traffic it gets, and it is re-admitted when they bring the EWMA back under
+ * the threshold.
+ *
+ * It also counts each peer's timed calls in flight (FollowerStats weighs them).
+ *
+ * Counters: peers.ejections, peers.readmissions; gauge peers.ejected.
+ */
+public final class PeerHealth {
+
+    private static final double ALPHA = NodeConfig.getDouble("peerEwmaAlpha", 0.2);
+    private static final long EJECT_NANOS = NodeConfig.getLong("peerEjectLatencyMs", 500) * 1_000_000L;
+    private static final int MIN_SAMPLES = NodeConfig.getInt("peerEjectMinSamples", 20);
+    private static final long EJECT_FOR_NANOS = NodeConfig.getLong("peerEjectSeconds", 10) * 1_000_000_000L;
+    private static final long PROBE_INTERVAL_MS = NodeConfig.getLong("peerProbeIntervalMs", 1000);
+
+    private static final Map<NodeInfo, Peer> peers = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "peer-prober");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        LeaderMetrics.gauge("peers.ejected",
+                () -> peers.values().stream().filter(Peer::ejected).count());
+        prober.scheduleWithFixedDelay(PeerHealth::probe,
+                PROBE_INTERVAL_MS, PROBE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private PeerHealth() {}
+
+    private static final class Peer {
+        final AtomicInteger inFlight = new AtomicInteger();
+        double ewma;
+        int samples = 0;
+        long ejectedAt = 0;
+        boolean ejected = false;
+
+        synchronized boolean ejected() {
+            return ejected;
+        }
+
+        synchronized double ewma() {
+            return ewma;
+        }
+
+        synchronized void record(long nanos) {
+            ewma = samples == 0 ? nanos : ALPHA * nanos + (1 - ALPHA) * ewma;
+            samples++;
+
+            if (!ejected && samples >= MIN_SAMPLES && ewma > EJECT_NANOS) {
+                ejected = true;
+                ejectedAt = System.nanoTime();
+                LeaderMetrics.increment("peers.ejections");
+            } else if (ejected && ewma <= EJECT_NANOS) {
+                ejected = false;
+                LeaderMetrics.increment("peers.readmissions");
+            }
+        }
+
+        synchronized boolean dueForProbe() {
+            return ejected && System.nanoTime() - ejectedAt >= EJECT_FOR_NANOS;
+        }
+    }
+
+    private static Peer peer(NodeInfo n) {
+        return peers.computeIfAbsent(n, k -> new Peer());
+    }
+
+    public static void record(NodeInfo n, long nanos) {
+        peer(n).record(nanos);
+    }
+
+    /** A failed call: deadline and unavailable count as slow, other errors say nothing. */
+    public static void failed(NodeInfo n, Throwable t, long deadlineMs) {
+        if (slow(t)) peer(n).record(deadlineMs * 1_000_000L);
+    }
+
+    public static boolean isEjected(NodeInfo n) {
+        Peer p = peers.get(n);
+        return p != null && p.ejected();
+    }
+
+    /** EWMA in nanos, -1 when nothing was measured yet. */
+    public static long latencyNanos(NodeInfo n) {
+        Peer p = peers.get(n);
+        return p == null ? -1 : (long) p.ewma();
+    }
+
+    /** Timed calls to n that have not finished yet. */
+    public static int inFlight(NodeInfo n) {
+        Peer p = peers.get(n);
+        return p == null ? 0 : p.inFlight.get();
+    }
+
+    public static void forget(NodeInfo n) {
+        peers.remove(n);
+    }
+
+    /** candidates without the ejected ones; all of them when fewer than `needed` would be left. */
+    public static List<NodeInfo> usable(List<NodeInfo> candidates, int needed) {
+        List<NodeInfo> healthy = new ArrayList<>(candidates.size());
+        for (NodeInfo n : candidates) {
+            if (!isEjected(n)) healthy.add(n);
+        }
+        return healthy.size() >= needed ? healthy : candidates;
+    }
+
+    /** Records the latency (or the failure) of f on n; returns f. */
+    public static <T> ListenableFuture<T> track(NodeInfo n, ListenableFuture<T> f, long deadlineMs) {
+        AtomicInteger inFlight = peer(n).inFlight;
+        inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        Futures.addCallback(f, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                inFlight.decrementAndGet();
+                record(n, System.nanoTime() - start);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                inFlight.decrementAndGet();
+                failed(n, t, deadlineMs);
+            }
+        }, MoreExecutors.directExecutor());
+        return f;
+    }
+
+    /** Blocking counterpart of track(). */
+    public static <T> T call(NodeInfo n, long deadlineMs, Supplier<T> rpc) {
+        AtomicInteger inFlight = peer(n).inFlight;
+        inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            T result = rpc.get();
+            record(n, System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            failed(n, e, deadlineMs);
+            throw e;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private static boolean slow(Throwable t) {
+        if (t instanceof TimeoutException) return true;
+        Status.Code code = Status.fromThrowable(t).getCode();
+        return code == Status.Code.DEADLINE_EXCEEDED || code == Status.Code.UNAVAILABLE;
+    }
+
+    // ejected peers whose ejection time is over get one Probe each round
+    private static void probe() {
+        peers.forEach((n, p) -> {
+            if (!p.dueForProbe()) return;
+            try {
+                track(n,
+                        Deadlines.get(PeerChannels.future(n)).probe(Empty.getDefaultInstance()),
+                        Deadlines.GET_MS);
+            } catch (StatusRuntimeException ignored) {}
+        });
+    }
+}
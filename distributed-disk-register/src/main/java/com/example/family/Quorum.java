@@ -0,0 +1,165 @@
+package com.example.family;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import family.NodeInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Parallel fan-out of one call to several replicas.
+ *
+ * All calls are started at once (future stubs); await() returns as soon as
+ * `needed` of them succeeded, or as soon as too many failed for that to happen.
+ * Calls still running at that point finish in the background: a late success
+ * is passed to `late` so the caller can still record the replica.
+ */
+public final class Quorum {
+
+    private Quorum() {}
+
+    public static List<NodeInfo> await(List<NodeInfo> targets,
+                                       Function<NodeInfo, ListenableFuture<?>> call,
+                                       int needed,
+                                       Consumer<NodeInfo> late) {
+        return await(targets, null, call, needed, late);
+    }
+
+    /**
+     * Same, with a spare replica that is called too when Hedging says so: after
+     * Hedging.delayNanos() without a quorum, or as soon as one target fails.
+     * An ack from the spare counts like any other.
+     */
+    public static List<NodeInfo> await(List<NodeInfo> targets,
+                                       NodeInfo spare,
+                                       Function<NodeInfo, ListenableFuture<?>> call,
+                                       int needed,
+                                       Consumer<NodeInfo> late) {
+
+        State state = new State(targets.size(), needed, spare);
+        long start = System.nanoTime();
+
+        for (NodeInfo n : targets) {
+            start(n, false, call, state, late, start);
+        }
+
+        long delay = spare == null ? -1 : Hedging.delayNanos();
+        try {
+            if (delay == 0) {
+                hedge(call, state, late, start);
+            } else if (delay > 0) {
+                try {
+                    return state.done.get(delay, TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    hedge(call, state, late, start);
+                }
+            }
+            return state.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return state.snapshot();
+        } catch (ExecutionException e) {
+            return state.snapshot();
+        }
+    }
+
+    private static void start(NodeInfo n,
+                              boolean isSpare,
+                              Function<NodeInfo, ListenableFuture<?>> call,
+                              State state,
+                              Consumer<NodeInfo> late,
+                              long start) {
+        ListenableFuture<?> f;
+        try {
+            f = call.apply(n);
+        } catch (RuntimeException e) {
+            failed(isSpare, call, state, late, start);
+            return;
+        }
+
+        Futures.addCallback(f, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                if (!isSpare) Hedging.record(System.nanoTime() - start);
+                if (!state.acked(n)) late.accept(n);
+                else if (isSpare) Hedging.won();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                failed(isSpare, call, state, late, start);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    // a failed target is replaced by the spare before it is counted, so the
+    // quorum is not given up while the spare could still make it
+    private static void failed(boolean isSpare,
+                               Function<NodeInfo, ListenableFuture<?>> call,
+                               State state,
+                               Consumer<NodeInfo> late,
+                               long start) {
+        if (!isSpare) hedge(call, state, late, start);
+        state.failed();
+    }
+
+    private static void hedge(Function<NodeInfo, ListenableFuture<?>> call,
+                              State state,
+                              Consumer<NodeInfo> late,
+                              long start) {
+        NodeInfo spare = state.takeSpare();
+        if (spare != null) start(spare, true, call, state, late, start);
+    }
+
+    private static final class State {
+
+        final int needed;
+        int total;
+        NodeInfo spare;
+        final List<NodeInfo> acked = new ArrayList<>();
+        final CompletableFuture<List<NodeInfo>> done = new CompletableFuture<>();
+        int failed = 0;
+
+        State(int total, int needed, NodeInfo spare) {
+            this.total = total;
+            this.needed = needed;
+            this.spare = spare;
+            if (total < needed || needed <= 0) done.complete(List.of());
+        }
+
+        // false when the answer was already given (the ack is late)
+        synchronized boolean acked(NodeInfo n) {
+            if (done.isDone()) return false;
+            acked.add(n);
+            if (acked.size() >= needed) done.complete(List.copyOf(acked));
+            return true;
+        }
+
+        // the spare, once, while there is no answer yet and the hedge budget allows it
+        synchronized NodeInfo takeSpare() {
+            NodeInfo n = spare;
+            spare = null;
+            if (n == null || done.isDone() || !Hedging.tryAcquire()) return null;
+            total++;
+            return n;
+        }
+
+        synchronized void failed() {
+            failed++;
+            if (!done.isDone() && total - failed < needed) done.complete(List.copyOf(acked));
+        }
+
+        synchronized List<NodeInfo> snapshot() {
+            return List.copyOf(acked);
+        }
+    }
+}
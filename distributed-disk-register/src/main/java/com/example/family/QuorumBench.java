@@ -0,0 +1,140 @@
+package com.example.family;
+
+import com.google.protobuf.ByteString;
+import family.*;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * SET latency vs. tolerance: sequential replication vs. the parallel quorum fan-out.
+ *
+ * Starts `followers` in-process fake followers whose Store acks after a
+ * delay of delayMs plus an exponentially distributed jitter (mean jitterMs), so
+ * replica RTTs look like a real network instead of loopback. For every tolerance
+ * 1..followers it times `samples` SETs both ways:
+ *
+ *   sequential  one blocking call per replica, one after another (old replicateSet)
+ *   parallel    NodeMain.replicateSet (all replicas at once, Quorum; replication=unary)
+ *
+ *   --followers=7 --samples=300 --delayMs=2 --jitterMs=3 --valueBytes=100
+ */
+public class QuorumBench {
+
+    private static final class Config {
+        int followers = 7;
+        int samples = 300;
+        int delayMs = 2;
+        int jitterMs = 3;
+        int valueBytes = 100;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config cfg = parseArgs(args);
+
+        // the fake followers answer unary Store only (ReplicationLink reads this once)
+        System.setProperty("replication", "unary");
+
+        NodeInfo self = NodeInfo.newBuilder().setHost("127.0.0.1").setPort(0).build();
+        NodeRegistry registry = new NodeRegistry();
+        registry.addListener(PeerChannels.registryListener(self));
+
+        List<Server> servers = new ArrayList<>();
+        List<NodeInfo> nodes = new ArrayList<>();
+        for (int i = 0; i < cfg.followers; i++) {
+            Server s = ServerBuilder.forPort(0).addService(new SlowFollower(cfg)).build().start();
+            servers.add(s);
+            NodeInfo n = NodeInfo.newBuilder().setHost("127.0.0.1").setPort(s.getPort()).build();
+            nodes.add(n);
+            registry.add(n);
+        }
+
+        ByteString value = ByteString.copyFromUtf8("A".repeat(cfg.valueBytes));
+
+        System.out.printf("QuorumBench | followers=%d | samples=%d | delay=%dms + exp(%dms)%n",
+                cfg.followers, cfg.samples, cfg.delayMs, cfg.jitterMs);
+        System.out.println("tolerance,sequential_p50_us,sequential_p99_us,parallel_p50_us,parallel_p99_us");
+
+        try {
+            long id = 0;
+            for (int t = 1; t <= cfg.followers; t++) {
+                long[] seq = new long[cfg.samples];
+                long[] par = new long[cfg.samples];
+
+                for (int i = 0; i < cfg.samples; i++) {
+                    StoredMessage msg = StoredMessage.newBuilder()
+                            .setId(++id)
+                            .setValue(value)
+                            .build();
+
+                    long start = System.nanoTime();
+                    for (int r = 0; r < t; r++) {
+                        PeerChannels.blocking(nodes.get((i + r) % nodes.size())).store(msg);
+                    }
+                    seq[i] = (System.nanoTime() - start) / 1_000L;
+
+                    start = System.nanoTime();
+                    if (!NodeMain.replicateSet(registry, self, ++id, value, t)) {
+                        throw new IllegalStateException("replication failed at tolerance " + t);
+                    }
+                    par[i] = (System.nanoTime() - start) / 1_000L;
+                }
+
+                Arrays.sort(seq);
+                Arrays.sort(par);
+                System.out.printf("%d,%d,%d,%d,%d%n", t,
+                        percentile(seq, 0.50), percentile(seq, 0.99),
+                        percentile(par, 0.50), percentile(par, 0.99));
+            }
+        } finally {
+            for (NodeInfo n : nodes) registry.remove(n);
+            for (Server s : servers) s.shutdownNow();
+        }
+    }
+
+    // acks Store after a network-like delay, stores nothing
+    private static final class SlowFollower extends FamilyServiceGrpc.FamilyServiceImplBase {
+
+        private final Config cfg;
+
+        SlowFollower(Config cfg) {
+            this.cfg = cfg;
+        }
+
+        @Override
+        public void store(StoredMessage request, StreamObserver<StoreResult> responseObserver) {
+            double jitter = -cfg.jitterMs * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+            try {
+                Thread.sleep(cfg.delayMs + (long) jitter);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            responseObserver.onNext(StoreResult.newBuilder().setOk(true).build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+    }
+
+    private static Config parseArgs(String[] args) {
+        Config c = new Config();
+        for (String a : args) {
+            if (a.startsWith("--followers=")) c.followers = Integer.parseInt(a.substring("--followers=".length()));
+            else if (a.startsWith("--samples=")) c.samples = Integer.parseInt(a.substring("--samples=".length()));
+            else if (a.startsWith("--delayMs=")) c.delayMs = Integer.parseInt(a.substring("--delayMs=".length()));
+            else if (a.startsWith("--jitterMs=")) c.jitterMs = Integer.parseInt(a.substring("--jitterMs=".length()));
+            else if (a.startsWith("--valueBytes=")) c.valueBytes = Integer.parseInt(a.substring("--valueBytes=".length()));
+        }
+        if (c.followers < 1) c.followers = 1;
+        if (c.samples < 1) c.samples = 1;
+        return c;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.family;
+
+import family.NodeInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Which holder of an id a GET asks first (C3 / least outstanding requests).
+ *
+ * The leader keeps, per follower, an EWMA of its Retrieve latency and the
+ * number of reads it has outstanding there. A holder's score is
+ *
+ *   (EWMA + 100 us) * (1 + outstanding reads)
+ *
+ * and the holders are asked in score order (HedgedRead goes down that list).
+ * Ties (e.g. nothing measured yet) are broken at random, so equal replicas
+ * share the reads; ejected peers (PeerHealth) come last. A read that failed
+ * counts as taking getDeadlineMs; one cancelled because another holder
+ * answered first says nothing about its latency.
+ *
+ * readReplicaSelection=ranked (default) | ordered (holders as recorded, the
+ * first replica takes every read).
+ */
+public final class ReadRanking {
+
+    public static final boolean RANKED =
+            NodeConfig.getString("readReplicaSelection", "ranked").equalsIgnoreCase("ranked");
+
+    private static final double ALPHA = NodeConfig.getDouble("peerEwmaAlpha", 0.2);
+    private static final double BASE_NANOS = 100_000;
+
+    private static final Map<NodeInfo, Reads> reads = new ConcurrentHashMap<>();
+
+    private ReadRanking() {}
+
+    private static final class Reads {
+        final AtomicInteger outstanding = new AtomicInteger();
+        double ewma = -1;
+
+        synchronized void record(long nanos) {
+            ewma = ewma < 0 ? nanos : ALPHA * nanos + (1 - ALPHA) * ewma;
+        }
+
+        synchronized double ewma() {
+            return ewma;
+        }
+    }
+
+    private static Reads of(NodeInfo n) {
+        return reads.computeIfAbsent(n, k -> new Reads());
+    }
+
+    /** A read to n was sent. */
+    public static void begin(NodeInfo n) {
+        of(n).outstanding.incrementAndGet();
+    }
+
+    /** The read to n came back after `nanos`. */
+    public static void end(NodeInfo n, long nanos) {
+        Reads r = of(n);
+        r.outstanding.decrementAndGet();
+        r.record(nanos);
+    }
+
+    /** The read to n failed (counts as the deadline) or was cancelled (counts as nothing). */
+    public static void failed(NodeInfo n, boolean cancelled) {
+        Reads r = of(n);
+        r.outstanding.decrementAndGet();
+        if (!cancelled) r.record(Deadlines.GET_MS * 1_000_000L);
+    }
+
+    public static void forget(NodeInfo n) {
+        reads.remove(n);
+    }
+
+    /** Lower is better. */
+    public static double score(NodeInfo n) {
+        if (PeerHealth.isEjected(n)) return Double.MAX_VALUE;
+        Reads r = reads.get(n);
+        if (r == null) return BASE_NANOS;
+        return (Math.max(0, r.ewma()) + BASE_NANOS) * (1 + r.outstanding.get());
+    }
+
+    /** holders in the order to ask them. */
+    public static List<NodeInfo> order(List<NodeInfo> holders) {
+        return order(holders, RANKED);
+    }
+
+    public static List<NodeInfo> order(List<NodeInfo> holders, boolean ranked) {
+        if (!ranked || holders.size() < 2) return holders;
+
+        List<NodeInfo> out = new ArrayList<>(holders);
+        Collections.shuffle(out, ThreadLocalRandom.current());
+        // scores change under us: take them once, then sort (stable, ties stay shuffled)
+        Map<NodeInfo, Double> scores = new HashMap<>();
+        for (NodeInfo n : out) scores.put(n, score(n));
+        out.sort(Comparator.comparingDouble(scores::get));
+        return out;
+    }
+
+    /** The best of holders, null when there is none. */
+    public static NodeInfo best(List<NodeInfo> holders) {
+        return holders.isEmpty() ? null : order(holders).get(0);
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.family;
+
+import com.google.protobuf.ByteString;
+import family.*;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read replica choice: holders as recorded ("ordered") vs. ReadRanking ("ranked").
+ *
+ * Starts `followers` in-process followers that hold every id, each with one
+ * "disk" (a single thread taking readMs per Retrieve); follower 1 takes slowMs
+ * instead. Every id's holders are all followers in the same recorded order.
+ * `threads` callers GET random ids for `seconds` per mode through HedgedRead
+ * (hedgeReads=off, so only the choice of holder differs) and the bench prints
+ * the share of reads each follower served.
+ *
+ *   --followers=3 --threads=16 --seconds=10 --readMs=1 --slowMs=5
+ */
+public class ReadRankingBench {
+
+    private static final class Config {
+        int followers = 3;
+        int threads = 16;
+        int seconds = 10;
+        int readMs = 1;
+        int slowMs = 5;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config cfg = parseArgs(args);
+
+        NodeInfo self = NodeInfo.newBuilder().setHost("127.0.0.1").setPort(0).build();
+        NodeRegistry registry = new NodeRegistry();
+        registry.addListener(PeerChannels.registryListener(self));
+
+        ByteString value = ByteString.copyFromUtf8("A".repeat(100));
+
+        List<Server> servers = new ArrayList<>();
+        List<DiskFollower> followers = new ArrayList<>();
+        List<NodeInfo> holders = new ArrayList<>();
+        for (int i = 0; i < cfg.followers; i++) {
+            DiskFollower f = new DiskFollower(i == 1 ? cfg.slowMs : cfg.readMs, value);
+            Server s = ServerBuilder.forPort(0).addService(f).build().start();
+            servers.add(s);
+            followers.add(f);
+            NodeInfo n = NodeInfo.newBuilder().setHost("127.0.0.1").setPort(s.getPort()).build();
+            registry.add(n);
+            holders.add(n);
+        }
+
+        System.out.printf("ReadRankingBench | followers=%d (follower 1 at %dms, others %dms per read) | threads=%d | %ds per run%n",
+                cfg.followers, cfg.slowMs, cfg.readMs, cfg.threads, cfg.seconds);
+        System.out.println("selection,gets_per_sec,p50_us,p99_us,share_pct_per_follower");
+
+        try {
+            for (int round = 0; round < 2; round++) {
+                boolean print = round == 1;   // first round is warm-up
+                run("ordered", false, cfg, holders, followers, print);
+                run("ranked", true, cfg, holders, followers, print);
+            }
+        } finally {
+            for (Server s : servers) s.shutdownNow();
+            for (DiskFollower f : followers) f.disk.shutdownNow();
+        }
+    }
+
+    private static void run(String name,
+                            boolean ranked,
+                            Config cfg,
+                            List<NodeInfo> holders,
+                            List<DiskFollower> followers,
+                            boolean print) throws InterruptedException {
+
+        for (DiskFollower f : followers) f.served.set(0);
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch finished = new CountDownLatch(cfg.threads);
+        List<long[]> perThread = new ArrayList<>();
+
+        for (int t = 0; t < cfg.threads; t++) {
+            long[] lat = new long[1 << 18];
+            perThread.add(lat);
+            Thread th = new Thread(() -> {
+                int count = 0;
+                while (!stop.get()) {
+                    long id = ThreadLocalRandom.current().nextLong(1, 1_000_000);
+                    long start = System.nanoTime();
+                    HedgedRead.retrieve(ReadRanking.order(holders, ranked), id, HedgedRead.Mode.OFF);
+                    if (count < lat.length - 1) lat[count++] = (System.nanoTime() - start) / 1_000L;
+                }
+                lat[lat.length - 1] = count;
+                finished.countDown();
+            });
+            th.setDaemon(true);
+            th.start();
+        }
+
+        Thread.sleep(cfg.seconds * 1000L);
+        stop.set(true);
+        finished.await();
+
+        int total = 0;
+        for (long[] lat : perThread) total += (int) lat[lat.length - 1];
+        long[] all = new long[total];
+        int pos = 0;
+        for (long[] lat : perThread) {
+            int n = (int) lat[lat.length - 1];
+            System.arraycopy(lat, 0, all, pos, n);
+            pos += n;
+        }
+        Arrays.sort(all);
+
+        if (print && total > 0) {
+            long served = 0;
+            for (DiskFollower f : followers) served += f.served.get();
+            StringBuilder shares = new StringBuilder();
+            for (DiskFollower f : followers) {
+                if (shares.length() > 0) shares.append('/');
+                shares.append(String.format("%.0f", 100.0 * f.served.get() / Math.max(1, served)));
+            }
+            System.out.printf("%s,%.0f,%d,%d,%s%n", name, total / (double) cfg.seconds,
+                    percentile(all, 0.50), percentile(all, 0.99), shares);
+        }
+    }
+
+    // one read at a time, like a single disk
+    private static final class DiskFollower extends FamilyServiceGrpc.FamilyServiceImplBase {
+
+        private final int readMs;
+        private final ByteString value;
+        private final AtomicLong served = new AtomicLong();
+        private final ThreadPoolExecutor disk = new ThreadPoolExecutor(
+                1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+
+        DiskFollower(int readMs, ByteString value) {
+            this.readMs = readMs;
+            this.value = value;
+        }
+
+        @Override
+        public void retrieve(GetRequest request, StreamObserver<RetrieveResponse> responseObserver) {
+            disk.execute(() -> {
+                try {
+                    Thread.sleep(readMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                served.incrementAndGet();
+                responseObserver.onNext(RetrieveResponse.newBuilder().setFound(true).setValue(value).build());
+                responseObserver.onCompleted();
+            });
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int idx = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+    }
+
+    private static Config parseArgs(String[] args) {
+        Config c = new Config();
+        for (String a : args) {
+            if (a.startsWith("--followers=")) c.followers = Integer.parseInt(a.substring("--followers=".length()));
+            else if (a.startsWith("--threads=")) c.threads = Integer.parseInt(a.substring("--threads=".length()));
+            else if (a.startsWith("--seconds=")) c.seconds = Integer.parseInt(a.substring("--seconds=".length()));
+            else if (a.startsWith("--readMs=")) c.readMs = Integer.parseInt(a.substring("--readMs=".length()));
+            else if (a.startsWith("--slowMs=")) c.slowMs = Integer.parseInt(a.substring("--slowMs=".length()));
+        }
+        if (c.followers < 2) c.followers = 2;
+        if (c.threads < 1) c.threads = 1;
+        if (c.seconds < 1) c.seconds = 1;
+        return c;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.family;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+import family.*;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Sustained small-SET throughput: one unary Store per replica vs. ReplicationLink.
+ *
+ * Starts in-process followers that ack without touching disk, then lets `threads`
+ * callers (like the leader's worker threads) replicate SETs to `tolerance` of them
+ * for `seconds`, once per transport, through the same Quorum fan-out replicateSet uses:
+ *
+ *   unary   PeerChannels.future(n).store(msg)        (replication=unary)
+ *   stream  ReplicationLink.to(n).send(msg)           (replication=stream)
+ *
+ *   --followers=3 --tolerance=2 --threads=256 --seconds=10 --valueBytes=100
+ */
+public class ReplicationBench {
+
+    private static final class Config {
+        int followers = 3;
+        int tolerance = 2;
+        int threads = 256;
+        int seconds = 10;
+        int valueBytes = 100;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config cfg = parseArgs(args);
+
+        List<Server> servers = new ArrayList<>();
+        List<NodeInfo> nodes = new ArrayList<>();
+        for (int i = 0; i < cfg.followers; i++) {
+            Server s = ServerBuilder.forPort(0).addService(new AckingFollower()).build().start();
+            servers.add(s);
+            nodes.add(NodeInfo.newBuilder().setHost("127.0.0.1").setPort(s.getPort()).build());
+        }
+        for (NodeInfo n : nodes) PeerChannels.warm(n);
+
+        ByteString value = ByteString.copyFromUtf8("A".repeat(cfg.valueBytes));
+
+        System.out.printf("ReplicationBench | followers=%d | tolerance=%d | threads=%d | %ds per run | valueBytes=%d%n",
+                cfg.followers, cfg.tolerance, cfg.threads, cfg.seconds, cfg.valueBytes);
+        System.out.println("transport,sets_per_sec,frames,messages_per_frame");
+
+        try {
+            for (int round = 0; round < 2; round++) {
+                boolean print = round == 1;   // first round is warm-up
+                run("unary", cfg, nodes, value, print, n -> msg -> PeerChannels.future(n).store(msg));
+                run("stream", cfg, nodes, value, print, n -> msg -> ReplicationLink.to(n).send(msg));
+            }
+        } finally {
+            for (NodeInfo n : nodes) ReplicationLink.close(n);
+            for (Server s : servers) s.shutdownNow();
+        }
+    }
+
+    private static void run(String name,
+                            Config cfg,
+                            List<NodeInfo> nodes,
+                            ByteString value,
+                            boolean print,
+                            Function<NodeInfo, Function<StoredMessage, ListenableFuture<?>>> transport)
+            throws InterruptedException {
+
+        AtomicLong done = new AtomicLong();
+        AtomicLong ids = new AtomicLong();
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch finished = new CountDownLatch(cfg.threads);
+        long framesBefore = LeaderMetrics.get("replication.frames");
+        long messagesBefore = LeaderMetrics.get("replication.messages");
+
+        for (int t = 0; t < cfg.threads; t++) {
+            Thread th = new Thread(() -> {
+                while (!stop.get()) {
+                    long id = ids.incrementAndGet();
+                    StoredMessage msg = StoredMessage.newBuilder().setId(id).setValue(value).build();
+
+                    List<NodeInfo> targets = new ArrayList<>(cfg.tolerance);
+                    for (int r = 0; r < cfg.tolerance; r++) {
+                        targets.add(nodes.get((int) ((id + r) % nodes.size())));
+                    }
+
+                    List<NodeInfo> acked = Quorum.await(targets,
+                            n -> transport.apply(n).apply(msg), cfg.tolerance, n -> {});
+                    if (acked.size() >= cfg.tolerance) done.incrementAndGet();
+                }
+                finished.countDown();
+            });
+            th.setDaemon(true);
+            th.start();
+        }
+
+        Thread.sleep(cfg.seconds * 1000L);
+        stop.set(true);
+        finished.await();
+
+        long frames = LeaderMetrics.get("replication.frames") - framesBefore;
+        long messages = LeaderMetrics.get("replication.messages") - messagesBefore;
+        if (print) {
+            System.out.printf("%s,%.0f,%d,%s%n", name, done.get() / (double) cfg.seconds, frames,
+                    frames == 0 ? "-" : String.format("%.1f", messages / (double) frames));
+        }
+    }
+
+    // acks Store and every ReplicationStream frame, stores nothing
+    private static final class AckingFollower extends FamilyServiceGrpc.FamilyServiceImplBase {
+
+        @Override
+        public void store(StoredMessage request, StreamObserver<StoreResult> responseObserver) {
+            responseObserver.onNext(StoreResult.newBuilder().setOk(true).build());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public StreamObserver<ReplicationFrame> replicationStream(StreamObserver<ReplicationAck> acks) {
+            return new StreamObserver<>() {
+                @Override
+                public void onNext(ReplicationFrame frame) {
+                    ReplicationAck.Builder ack = ReplicationAck.newBuilder().setSeq(frame.getSeq());
+                    for (int i = 0; i < frame.getMessagesCount(); i++) ack.addOk(true);
+                    acks.onNext(ack.build());
+                }
+
+                @Override
+                public void onError(Throwable t) {}
+
+                @Override
+                public void onCompleted() {
+                    acks.onCompleted();
+                }
+            };
+        }
+    }
+
+    private static Config parseArgs(String[] args) {
+        Config c = new Config();
+        for (String a : args) {
+            if (a.startsWith("--followers=")) c.followers = Integer.parseInt(a.substring("--followers=".length()));
+            else if (a.startsWith("--tolerance=")) c.tolerance = Integer.parseInt(a.substring("--tolerance=".length()));
+            else if (a.startsWith("--threads=")) c.threads = Integer.parseInt(a.substring("--threads=".length()));
+            else if (a.startsWith("--seconds=")) c.seconds = Integer.parseInt(a.substring("--seconds=".length()));
+            else if (a.startsWith("--valueBytes=")) c.valueBytes = Integer.parseInt(a.substring("--valueBytes=".length()));
+        }
+        if (c.followers < 1) c.followers = 1;
+        if (c.tolerance < 1) c.tolerance = 1;
+        if (c.tolerance > c.followers) c.tolerance = c.followers;
+        if (c.threads < 1) c.threads = 1;
+        if (c.seconds < 1) c.seconds = 1;
+        return c;
+    }
+}
@@ -0,0 +1,325 @@
+package com.example.family;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import family.*;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Persistent bidirectional ReplicationStream from the leader to one follower.
+ *
+ * SETs of all client connections that go to this follower are queued here and a
+ * sender thread ships them as ReplicationFrames: it takes what is queued, lingers
+ * up to replicationLingerMicros for more (unless the frame is already full) and
+ * sends it with the next sequence number. The follower stores the frame and
+ * answers one ReplicationAck per seq, which completes the callers' futures.
+ * This is group commit over the network: under load many SETs share one frame
+ * and one ack. At most replicationFramesInFlight frames are unacked at a time,
+ * so a busy follower makes the next frames bigger instead of queueing small ones.
+ *
+ * A broken stream fails what it had in flight; the next frame opens a new one.
+ * A frame not acked within storeDeadlineMs breaks the stream, so a follower that
+ * stays connected but stops answering cannot hold the link. At most
+ * replicationQueueBytes wait to be sent: send() blocks the caller until there
+ * is room (storeDeadlineMs at most, then it fails). SETs whose caller gave up
+ * (future cancelled by Deadlines.within) are dropped before they are sent.
+ */
+public final class ReplicationLink {
+
+    public static final boolean ENABLED =
+            NodeConfig.getString("replication", "unary").equalsIgnoreCase("stream");
+
+    private static final long LINGER_NANOS = NodeConfig.getLong("replicationLingerMicros", 100) * 1_000L;
+    private static final int MAX_FRAME_MESSAGES = NodeConfig.getInt("replicationFrameMessages", 256);
+    private static final int MAX_FRAME_BYTES = NodeConfig.getInt("replicationFrameBytes", 1024 * 1024);
+    private static final int MAX_FRAMES_IN_FLIGHT = NodeConfig.getInt("replicationFramesInFlight", 4);
+    private static final long MAX_QUEUED_BYTES = NodeConfig.getLong("replicationQueueBytes", 64L * 1024 * 1024);
+    private static final long ACK_TIMEOUT_NANOS = Deadlines.STORE_MS * 1_000_000L;
+
+    private static final Map<NodeInfo, ReplicationLink> links = new ConcurrentHashMap<>();
+
+    public static ReplicationLink to(NodeInfo n) {
+        return links.computeIfAbsent(n, ReplicationLink::new);
+    }
+
+    public static void close(NodeInfo n) {
+        ReplicationLink link = links.remove(n);
+        if (link != null) link.close();
+    }
+
+    private static final class Pending {
+        final StoredMessage msg;
+        final SettableFuture<Boolean> result = SettableFuture.create();
+
+        Pending(StoredMessage msg) {
+            this.msg = msg;
+        }
+    }
+
+    private final NodeInfo node;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition wake = lock.newCondition();
+    private final Condition room = lock.newCondition();
+    private final ArrayDeque<Pending> queue = new ArrayDeque<>();
+    private long queuedBytes = 0;
+    private Stream stream;
+    private boolean closed = false;
+
+    private ReplicationLink(NodeInfo node) {
+        this.node = node;
+
+        Thread sender = new Thread(this::sendLoop, "replication-" + node.getHost() + ":" + node.getPort());
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /** Completes with true once the follower stored msg; fails otherwise. */
+    public ListenableFuture<Boolean> send(StoredMessage msg) {
+        Pending p = new Pending(msg);
+
+        lock.lock();
+        try {
+            // follower behind by a full queue: the caller waits (backpressure)
+            long wait = ACK_TIMEOUT_NANOS;
+            while (!closed && !queue.isEmpty() && queuedBytes >= MAX_QUEUED_BYTES && wait > 0) {
+                wait = room.awaitNanos(wait);
+            }
+            if (closed) {
+                p.result.setException(new IllegalStateException("link to " + node.getPort() + " closed"));
+                return p.result;
+            }
+            if (!queue.isEmpty() && queuedBytes >= MAX_QUEUED_BYTES) {
+                LeaderMetrics.increment("replication.queueFull");
+                p.result.setException(new IllegalStateException("link to " + node.getPort() + " full"));
+                return p.result;
+            }
+            queue.add(p);
+            queuedBytes += msg.getSerializedSize();
+            if (queue.size() == 1 || frameFull()) wake.signalAll();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            p.result.setException(e);
+        } finally {
+            lock.unlock();
+        }
+        return p.result;
+    }
+
+    private void close() {
+        lock.lock();
+        try {
+            closed = true;
+            wake.signalAll();
+            room.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ======================================================
+    // SENDER
+    // ======================================================
+
+    private void sendLoop() {
+        while (true) {
+            List<Pending> frame;
+            Stream s;
+
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !closed) {
+                    wake.await(100, TimeUnit.MILLISECONDS);
+                    if (stream != null) stream.checkAcks();
+                }
+                if (closed) break;
+
+                // linger: let SETs of other clients join this frame
+                long deadline = System.nanoTime() + LINGER_NANOS;
+                long left;
+                while (!frameFull() && !closed && (left = deadline - System.nanoTime()) > 0) {
+                    wake.awaitNanos(left);
+                }
+
+                if (stream == null) stream = new Stream();
+                s = stream;
+
+                // follower is behind: keep collecting until it can take more
+                while (!s.ready() && !s.broken && !closed) {
+                    wake.await(100, TimeUnit.MILLISECONDS);
+                    s.checkAcks();
+                }
+                if (closed) break;
+                if (s.broken) continue;   // the next round opens a new stream
+
+                frame = takeFrame();
+                if (frame.isEmpty()) continue;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                lock.unlock();
+            }
+
+            s.send(frame);
+        }
+
+        // closed: fail what never made it out, end the stream
+        lock.lock();
+        try {
+            for (Pending p : queue) {
+                p.result.setException(new IllegalStateException("link to " + node.getPort() + " closed"));
+            }
+            queue.clear();
+            if (stream != null) stream.end();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean frameFull() {
+        return queue.size() >= MAX_FRAME_MESSAGES || queuedBytes >= MAX_FRAME_BYTES;
+    }
+
+    private List<Pending> takeFrame() {
+        List<Pending> frame = new ArrayList<>(Math.min(queue.size(), MAX_FRAME_MESSAGES));
+        long bytes = 0;
+        while (!queue.isEmpty() && frame.size() < MAX_FRAME_MESSAGES
+                && (frame.isEmpty() || bytes < MAX_FRAME_BYTES)) {
+            Pending p = queue.poll();
+            int size = p.msg.getSerializedSize();
+            queuedBytes -= size;
+            // the caller timed out already: nobody waits for this one
+            if (p.result.isCancelled()) continue;
+            bytes += size;
+            frame.add(p);
+        }
+        room.signalAll();
+        return frame;
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            wake.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // One ReplicationStream call; seqs and in-flight frames belong to it.
+    private final class Stream implements ClientResponseObserver<ReplicationFrame, ReplicationAck> {
+
+        private final Map<Long, List<Pending>> inFlight = new ConcurrentHashMap<>();
+        private final Map<Long, Long> sentAt = new ConcurrentHashMap<>();
+        private ClientCallStreamObserver<ReplicationFrame> requests;
+        private long nextSeq = 0;
+        volatile boolean broken = false;
+
+        Stream() {
+            PeerChannels.async(node).replicationStream(this);
+        }
+
+        boolean ready() {
+            return requests.isReady() && inFlight.size() < MAX_FRAMES_IN_FLIGHT;
+        }
+
+        // sender thread only
+        void send(List<Pending> frame) {
+            long seq = nextSeq++;
+            ReplicationFrame.Builder b = ReplicationFrame.newBuilder().setSeq(seq);
+            for (Pending p : frame) b.addMessages(p.msg);
+
+            sentAt.put(seq, System.nanoTime());
+            inFlight.put(seq, frame);
+            LeaderMetrics.increment("replication.frames");
+            LeaderMetrics.add("replication.messages", frame.size());
+            try {
+                requests.onNext(b.build());
+            } catch (RuntimeException e) {
+                onError(e);
+            }
+            // the stream may have broken while we were adding the frame
+            if (broken) failAll(new IllegalStateException("replication stream broken"));
+        }
+
+        void end() {
+            if (!broken) requests.onCompleted();
+        }
+
+        // a frame without ack for storeDeadlineMs: the follower hangs, start over
+        void checkAcks() {
+            if (broken) return;
+            long now = System.nanoTime();
+            for (long t : sentAt.values()) {
+                if (now - t > ACK_TIMEOUT_NANOS) {
+                    LeaderMetrics.increment("replication.ackTimeouts");
+                    requests.cancel("no ack from " + node.getPort() + " within " + Deadlines.STORE_MS + " ms", null);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<ReplicationFrame> requestStream) {
+            requests = requestStream;
+            requestStream.setOnReadyHandler(ReplicationLink.this::signal);
+        }
+
+        @Override
+        public void onNext(ReplicationAck ack) {
+            sentAt.remove(ack.getSeq());
+            List<Pending> frame = inFlight.remove(ack.getSeq());
+            if (frame == null) return;
+            if (inFlight.size() == MAX_FRAMES_IN_FLIGHT - 1) signal();
+
+            for (int i = 0; i < frame.size(); i++) {
+                Pending p = frame.get(i);
+                if (i < ack.getOkCount() && ack.getOk(i)) {
+                    p.result.set(true);
+                } else {
+                    p.result.setException(new IllegalStateException(
+                            node.getPort() + " did not store " + p.msg.getId()));
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            broken = true;
+            failAll(t);
+
+            lock.lock();
+            try {
+                if (stream == this) stream = null;
+                wake.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void onCompleted() {
+            onError(new IllegalStateException("replication stream closed by " + node.getPort()));
+        }
+
+        private void failAll(Throwable t) {
+            for (Long seq : inFlight.keySet()) {
+                sentAt.remove(seq);
+                List<Pending> frame = inFlight.remove(seq);
+                if (frame == null) continue;
+                for (Pending p : frame) p.result.setException(t);
+            }
+        }
+    }
+}
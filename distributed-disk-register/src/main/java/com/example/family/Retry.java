@@ -0,0 +1,113 @@
+package com.example.family;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import family.NodeInfo;
+import io.grpc.Status;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bounded retries of leader -> follower writes.
+ *
+ * A call that failed with UNAVAILABLE or ABORTED (connection refused or reset,
+ * stream broken: a short blip) is tried again, at most retryMaxAttempts times in
+ * all, after a "full jitter" backoff: random in [0, min(retryMaxMs,
+ * retryBaseMs * 2^attempt)]. Deadline and other errors are not retried, nor is a
+ * peer PeerHealth has ejected.
+ *
+ * Retries are paid from a budget like Hedging's: every first attempt adds
+ * retryBudgetPercent/100 of a token (at most retryBudgetBurst are kept), every
+ * retry takes one. A follower that is down for good therefore costs a bounded
+ * number of extra calls, and its writes go to HintedHandoff instead.
+ *
+ * Counters: retry.attempted, retry.succeeded, retry.throttled.
+ */
+public final class Retry {
+
+    private static final int MAX_ATTEMPTS = NodeConfig.getInt("retryMaxAttempts", 3);
+    private static final long BASE_MS = NodeConfig.getLong("retryBaseMs", 20);
+    private static final long MAX_MS = NodeConfig.getLong("retryMaxMs", 200);
+    private static final double TOKENS_PER_CALL = NodeConfig.getDouble("retryBudgetPercent", 20) / 100.0;
+    private static final double MAX_TOKENS = NodeConfig.getDouble("retryBudgetBurst", 20);
+
+    private static final TokenBudget budget = new TokenBudget(TOKENS_PER_CALL, MAX_TOKENS);
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "retry-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Retry() {}
+
+    /** rpc on n, retried as described above; fails with the last attempt's error. */
+    public static <T> ListenableFuture<T> call(NodeInfo n, Supplier<ListenableFuture<T>> rpc) {
+        earn();
+        SettableFuture<T> result = SettableFuture.create();
+        attempt(n, rpc, 1, result);
+        return result;
+    }
+
+    private static <T> void attempt(NodeInfo n,
+                                    Supplier<ListenableFuture<T>> rpc,
+                                    int attempt,
+                                    SettableFuture<T> result) {
+        ListenableFuture<T> f;
+        try {
+            f = rpc.get();
+        } catch (RuntimeException e) {
+            f = Futures.immediateFailedFuture(e);
+        }
+
+        Futures.addCallback(f, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                if (attempt > 1) LeaderMetrics.increment("retry.succeeded");
+                result.set(value);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (attempt >= MAX_ATTEMPTS || !retryable(t) || PeerHealth.isEjected(n) || !tryAcquire()) {
+                    result.setException(t);
+                    return;
+                }
+                LeaderMetrics.increment("retry.attempted");
+                timer.schedule(() -> attempt(n, rpc, attempt + 1, result),
+                        backoffMs(attempt, BASE_MS, MAX_MS), TimeUnit.MILLISECONDS);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /** Full jitter: random in [0, min(maxMs, baseMs * 2^(attempt-1))]. */
+    public static long backoffMs(int attempt, long baseMs, long maxMs) {
+        long cap = Math.min(maxMs, baseMs << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    /** The peer could not be reached: worth another try, or a hint. */
+    public static boolean retryable(Throwable t) {
+        Status.Code code = Status.fromThrowable(t).getCode();
+        return code == Status.Code.UNAVAILABLE || code == Status.Code.ABORTED;
+    }
+
+    private static void earn() {
+        budget.earn();
+    }
+
+    private static boolean tryAcquire() {
+        if (!budget.tryAcquire()) {
+            LeaderMetrics.increment("retry.throttled");
+            return false;
+        }
+        return true;
+    }
+}
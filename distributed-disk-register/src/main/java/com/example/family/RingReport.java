@@ -0,0 +1,99 @@
+package com.example.family;
+
+import family.NodeInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distribution report for HashRing placement (no nodes are started).
+ *
+ * Places ids 1..sets on `members` followers with `tolerance` replicas each and
+ * prints how many replicas every follower ends up with, against the TO-DOs'
+ * balance goals:
+ *
+ *   1000 SETs, tolerance=2, 4 followers  -> about 500 per follower
+ *   9000 SETs, tolerance=3, 6 followers  -> about 4500 per follower
+ *
+ * Then one more follower joins and it reports the share of replicas that moved
+ * (ideal: 1/(members+1), all of them onto the new follower) and the lookup cost.
+ *
+ *   --vnodes=1024   or a single scenario: --sets=1000 --tolerance=2 --members=4
+ */
+public class RingReport {
+
+    public static void main(String[] args) {
+        int vnodes = NodeConfig.getInt("ringVirtualNodes", 1024);
+        int sets = 0, tolerance = 0, members = 0;
+        for (String a : args) {
+            if (a.startsWith("--vnodes=")) vnodes = Integer.parseInt(a.substring("--vnodes=".length()));
+            else if (a.startsWith("--sets=")) sets = Integer.parseInt(a.substring("--sets=".length()));
+            else if (a.startsWith("--tolerance=")) tolerance = Integer.parseInt(a.substring("--tolerance=".length()));
+            else if (a.startsWith("--members=")) members = Integer.parseInt(a.substring("--members=".length()));
+        }
+
+        System.out.printf("RingReport | vnodes=%d%n", vnodes);
+        System.out.println("sets,tolerance,member,replicas,expected,deviation_pct");
+
+        if (sets > 0 && tolerance > 0 && members >= tolerance) {
+            report(vnodes, sets, tolerance, members);
+        } else {
+            report(vnodes, 1000, 2, 4);
+            report(vnodes, 9000, 3, 6);
+        }
+    }
+
+    private static void report(int vnodes, int sets, int tolerance, int members) {
+        HashRing ring = new HashRing(vnodes);
+        List<NodeInfo> nodes = new ArrayList<>();
+        for (int i = 0; i < members; i++) {
+            NodeInfo n = NodeInfo.newBuilder().setHost("127.0.0.1").setPort(5556 + i).build();
+            nodes.add(n);
+            ring.add(n);
+        }
+
+        Map<NodeInfo, Integer> count = new HashMap<>();
+        Map<Long, List<NodeInfo>> before = new HashMap<>();
+        for (long id = 1; id <= sets; id++) {
+            List<NodeInfo> replicas = ring.walk(id, tolerance);
+            before.put(id, replicas);
+            for (NodeInfo n : replicas) count.merge(n, 1, Integer::sum);
+        }
+
+        double expected = sets * (double) tolerance / members;
+        double worst = 0;
+        for (NodeInfo n : nodes) {
+            int c = count.getOrDefault(n, 0);
+            double dev = 100.0 * (c - expected) / expected;
+            worst = Math.max(worst, Math.abs(dev));
+            System.out.printf("%d,%d,%d,%d,%.0f,%+.1f%n", sets, tolerance, n.getPort(), c, expected, dev);
+        }
+
+        // one more follower joins
+        NodeInfo joined = NodeInfo.newBuilder().setHost("127.0.0.1").setPort(5556 + members).build();
+        ring.add(joined);
+
+        long moved = 0, movedElsewhere = 0;
+        for (long id = 1; id <= sets; id++) {
+            List<NodeInfo> after = ring.walk(id, tolerance);
+            for (NodeInfo n : after) {
+                if (!before.get(id).contains(n)) {
+                    moved++;
+                    if (!n.equals(joined)) movedElsewhere++;
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        long sink = 0;
+        for (long id = 1; id <= 1_000_000; id++) sink += ring.walk(id, tolerance).size();
+        long lookupNs = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.printf("# max deviation %.1f%% | join of a %dth follower moved %.1f%% of replicas "
+                        + "(ideal %.1f%%, %d not onto the new one) | lookup %d ns (%d points)%s%n",
+                worst, members + 1, 100.0 * moved / (sets * (double) tolerance), 100.0 / (members + 1),
+                movedElsewhere, lookupNs, ring.points(), sink < 0 ? "!" : "");
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.family;
+
+import com.google.protobuf.ByteString;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte level parser/encoder for the hot text commands (SET/GET).
+ *
+ * Works directly on a connection's read buffer and write buffer: the command
+ * word is matched case-insensitively in place, the id is parsed from the digits
+ * and replies are encoded without building Strings. Parse + encode allocate
+ * nothing; the only per-request allocation left on the SET path is the copy of
+ * the value that has to outlive the reused read buffer.
+ *
+ * Anything that is not SET/GET is reported as OTHER and handled by the String path
+ * (NodeMain.handleCommand), matching the old split(" ", 3) semantics.
+ */
+public final class TextCodec {
+
+    public static final byte SET = 1;
+    public static final byte GET = 2;
+    public static final byte OTHER = 3;
+    public static final byte BAD = 4;
+
+    private static final byte[] OK = "OK\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERROR = "ERROR\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOT_FOUND = "NOT_FOUND\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BUSY = "BUSY\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VALUE = "VALUE ".getBytes(StandardCharsets.US_ASCII);
+
+    /** One parsed line; reused by a connection for every request. */
+    public static final class Command {
+        public byte kind;
+        public long id;
+        public int valueStart;
+        public int valueEnd;
+        public int w;   // SET: write consistency (see WriteConsistency)
+    }
+
+    private TextCodec() {}
+
+    // ======================================================
+    // PARSE
+    // ======================================================
+
+    /** Parses buf[start, end) (one line, without the newline) into cmd. */
+    public static void parse(byte[] buf, int start, int end, Command cmd) {
+        int sp = indexOf(buf, start, end, (byte) ' ');
+        int wordEnd = sp < 0 ? end : sp;
+
+        boolean set = matches(buf, start, wordEnd, 'S', 'E', 'T');
+        boolean get = !set && matches(buf, start, wordEnd, 'G', 'E', 'T');
+        if (!set && !get) {
+            cmd.kind = OTHER;
+            return;
+        }
+        if (sp < 0) {
+            cmd.kind = BAD;
+            return;
+        }
+
+        int idStart = sp + 1;
+        int idEnd = indexOf(buf, idStart, end, (byte) ' ');
+        if (idEnd < 0) idEnd = end;
+
+        if (!parseLong(buf, idStart, idEnd, cmd)) {
+            cmd.kind = BAD;
+            return;
+        }
+
+        if (set) {
+            // "SET id value [W=level]": everything after the second space is the value
+            if (idEnd == end) {
+                cmd.kind = BAD;
+                return;
+            }
+            cmd.kind = SET;
+            cmd.valueStart = idEnd + 1;
+            cmd.valueEnd = end;
+
+            // optional last token "W=<level>"
+            cmd.w = WriteConsistency.DEFAULT;
+            int last = lastIndexOf(buf, cmd.valueStart, end, (byte) ' ');
+            if (last > cmd.valueStart) {
+                int w = WriteConsistency.option(buf, last + 1, end);
+                if (w != WriteConsistency.NOT_GIVEN) {
+                    cmd.w = w;
+                    cmd.valueEnd = last;
+                }
+            }
+        } else {
+            cmd.kind = GET;
+        }
+    }
+
+    public static int indexOf(byte[] buf, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] buf, int from, int to, byte b) {
+        for (int i = to - 1; i >= from; i--) {
+            if (buf[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private static boolean matches(byte[] buf, int start, int end, char a, char b, char c) {
+        return end - start == 3
+                && (buf[start] & 0xDF) == a
+                && (buf[start + 1] & 0xDF) == b
+                && (buf[start + 2] & 0xDF) == c;
+    }
+
+    // same accepted range as Long.parseLong, result in cmd.id
+    private static boolean parseLong(byte[] buf, int start, int end, Command cmd) {
+        if (start >= end) return false;
+
+        boolean negative = false;
+        int i = start;
+        if (buf[i] == '-' || buf[i] == '+') {
+            negative = buf[i] == '-';
+            i++;
+            if (i == end) return false;
+        }
+
+        // accumulate negatively so Long.MIN_VALUE fits
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multMin = limit / 10;
+        long result = 0;
+        for (; i < end; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) return false;
+            if (result < multMin) return false;
+            result *= 10;
+            if (result < limit + d) return false;
+            result -= d;
+        }
+        cmd.id = negative ? result : -result;
+        return true;
+    }
+
+    // ======================================================
+    // ENCODE (out is in write mode and must have room, see *Size)
+    // ======================================================
+
+    public static void encodeStatus(ByteBuffer out, boolean ok) {
+        out.put(ok ? OK : ERROR);
+    }
+
+    public static int statusSize(boolean ok) {
+        return ok ? OK.length : ERROR.length;
+    }
+
+    public static void encodeNotFound(ByteBuffer out) {
+        out.put(NOT_FOUND);
+    }
+
+    public static int notFoundSize() {
+        return NOT_FOUND.length;
+    }
+
+    /** Admission refused the request (see Admission). */
+    public static void encodeBusy(ByteBuffer out) {
+        out.put(BUSY);
+    }
+
+    public static int busySize() {
+        return BUSY.length;
+    }
+
+    /** "VALUE id value\n" */
+    public static void encodeValue(ByteBuffer out, long id, ByteString value) {
+        out.put(VALUE);
+        putLong(out, id);
+        out.put((byte) ' ');
+        value.copyTo(out);
+        out.put((byte) '\n');
+    }
+
+    public static int valueSize(long id, ByteString value) {
+        return VALUE.length + digits(id) + 1 + value.size() + 1;
+    }
+
+    private static void putLong(ByteBuffer out, long v) {
+        int n = digits(v);
+        int pos = out.position();
+        int i = pos + n - 1;
+
+        // work on the negative value so Long.MIN_VALUE does not overflow
+        long x = v < 0 ? v : -v;
+        do {
+            out.put(i--, (byte) ('0' - (x % 10)));
+            x /= 10;
+        } while (x != 0);
+        if (v < 0) out.put(pos, (byte) '-');
+
+        out.position(pos + n);
+    }
+
+    private static int digits(long v) {
+        int n = v < 0 ? 2 : 1;
+        long x = v < 0 ? v : -v;
+        while (x <= -10) {
+            x /= 10;
+            n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.family;
+
+import com.google.protobuf.ByteString;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Micro benchmark: String based command handling vs. TextCodec.
+ *
+ * For a GET line and a small SET line it runs parse + reply encoding in a loop
+ * and reports ns/op and bytes allocated per op (from the JVM's per-thread
+ * allocation counter, so no JMH needed). Both SET paths include the copy of
+ * the value that outlives the read buffer. Replication is not part of this.
+ *
+ *   --iterations=2000000 --valueBytes=64
+ */
+public class TextCodecBench {
+
+    public static void main(String[] args) {
+        int iterations = 2_000_000;
+        int valueBytes = 64;
+        for (String a : args) {
+            if (a.startsWith("--iterations=")) iterations = Integer.parseInt(a.substring("--iterations=".length()));
+            else if (a.startsWith("--valueBytes=")) valueBytes = Integer.parseInt(a.substring("--valueBytes=".length()));
+        }
+
+        String value = "A".repeat(valueBytes);
+        byte[] getLine = "get 123456".getBytes(StandardCharsets.UTF_8);
+        byte[] setLine = ("SET 123456 " + value).getBytes(StandardCharsets.UTF_8);
+        ByteString stored = ByteString.copyFromUtf8(value);
+
+        System.out.printf("TextCodecBench | iterations=%d | valueBytes=%d%n", iterations, valueBytes);
+        System.out.println("case,ns_per_op,bytes_per_op");
+
+        // warm up both paths before measuring
+        for (int round = 0; round < 2; round++) {
+            boolean print = round == 1;
+            measure("string GET", iterations, print, () -> stringPath(getLine, stored));
+            measure("codec  GET", iterations, print, codecPath(getLine, stored));
+            measure("string SET", iterations, print, () -> stringPath(setLine, stored));
+            measure("codec  SET", iterations, print, codecPath(setLine, stored));
+        }
+    }
+
+    private static long sink;
+
+    // what handleCommand + the old listener do per request
+    private static void stringPath(byte[] lineBytes, ByteString stored) {
+        String line = new String(lineBytes, StandardCharsets.UTF_8);
+        String[] parts = line.split(" ", 3);
+        String cmd = parts[0].toUpperCase();
+        long id = Long.parseLong(parts[1]);
+
+        String reply;
+        if (cmd.equals("SET")) {
+            ByteString v = ByteString.copyFromUtf8(parts[2]);
+            sink += v.size();
+            reply = "OK";
+        } else {
+            reply = "VALUE " + id + " " + stored.toStringUtf8();
+        }
+        sink += (reply + "\n").getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    // what NioTextListener does per request, with its reused buffers
+    private static Runnable codecPath(byte[] lineBytes, ByteString stored) {
+        TextCodec.Command cmd = new TextCodec.Command();
+        ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+
+        return () -> {
+            TextCodec.parse(lineBytes, 0, lineBytes.length, cmd);
+            out.clear();
+            if (cmd.kind == TextCodec.SET) {
+                // the one copy NioTextListener makes: the read buffer is reused
+                ByteString v = ByteString.copyFrom(lineBytes, cmd.valueStart, cmd.valueEnd - cmd.valueStart);
+                sink += v.size();
+                TextCodec.encodeStatus(out, true);
+            } else {
+                TextCodec.encodeValue(out, cmd.id, stored);
+            }
+            sink += out.position();
+        };
+    }
+
+    private static void measure(String name, int iterations, boolean print, Runnable op) {
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().getId();
+
+        long allocBefore = mx.getThreadAllocatedBytes(tid);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            op.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = mx.getThreadAllocatedBytes(tid) - allocBefore;
+
+        if (print) {
+            System.out.printf("%s,%.1f,%.1f%n", name,
+                    (double) elapsed / iterations, (double) allocated / iterations);
+        }
+    }
+}
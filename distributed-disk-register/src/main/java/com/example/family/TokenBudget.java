@@ -0,0 +1,41 @@
+package com.example.family;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budget for extra calls (hedges, retries): every regular call earns
+ * `perCall` of a token, at most `max` tokens are kept, an extra call takes one.
+ * Touched on every request, so it is a CAS on milli-tokens, not a lock.
+ */
+final class TokenBudget {
+
+    private static final long ONE = 1000;
+
+    private final long perCall;
+    private final long max;
+    private final AtomicLong milli;
+
+    TokenBudget(double perCall, double max) {
+        this.perCall = Math.round(perCall * ONE);
+        this.max = Math.round(max * ONE);
+        this.milli = new AtomicLong(this.max);
+    }
+
+    void earn() {
+        long v;
+        do {
+            v = milli.get();
+            if (v >= max) return;
+        } while (!milli.compareAndSet(v, Math.min(max, v + perCall)));
+    }
+
+    /** true = the extra call may go (its token is taken). */
+    boolean tryAcquire() {
+        long v;
+        do {
+            v = milli.get();
+            if (v < ONE) return false;
+        } while (!milli.compareAndSet(v, v - ONE));
+        return true;
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.family;
+
+import com.google.protobuf.ByteString;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Leader-side cache of values by id, bounded by bytes (W-TinyLFU).
+ *
+ * New values go to a small LRU window (windowPercent of the bytes). What falls
+ * out of the window is only admitted to the main part if a frequency sketch
+ * says it was asked for more often than the entry it would push out, so a scan
+ * of ids read once does not flush the hot ones. The main part is a segmented
+ * LRU: probation, and protected (80%) for entries hit again there.
+ *
+ * An entry weighs its value's size plus ENTRY_OVERHEAD; values above
+ * maxValueBytes are not cached. Writers invalidate() an id before they change
+ * it, and a read fills the cache with putIf() only if no invalidate() of its
+ * id came in between (version()), so a slow GET cannot put back a value a SET
+ * just replaced.
+ *
+ * The ids are split over SEGMENTS segments by hash, each a cache of its own
+ * (window, main part, sketch, versions) behind its own lock, so concurrent
+ * GETs of different ids rarely wait for each other. A value heavier than its
+ * segment's window goes straight to the admission check.
+ */
+public final class ValueCache {
+
+    // map entries, ByteString and Long objects per cached value, roughly
+    static final int ENTRY_OVERHEAD = 96;
+
+    private static final int SEGMENTS = 16;
+    private static final int VERSION_STRIPES = 1024 / SEGMENTS;
+
+    private final long maxBytes;
+    private final long maxValueBytes;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ValueCache(long maxBytes, long maxValueBytes) {
+        this(maxBytes, maxValueBytes, 1);
+    }
+
+    /** windowPercent=100 leaves no main part: a plain LRU (for comparison). */
+    ValueCache(long maxBytes, long maxValueBytes, double windowPercent) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.maxValueBytes = maxValueBytes;
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment(this.maxBytes / SEGMENTS, windowPercent);
+    }
+
+    public boolean enabled() {
+        return maxBytes > 0;
+    }
+
+    public ByteString get(long id) {
+        if (!enabled()) return null;
+        ByteString v = segment(id).get(id);
+        if (v == null) misses.increment();
+        else hits.increment();
+        return v;
+    }
+
+    /** Current version of id: pass it to putIf() after reading the value elsewhere. */
+    public long version(long id) {
+        return segment(id).version(id);
+    }
+
+    /** Caches value unless id was invalidated since `version`. */
+    public void putIf(long id, ByteString value, long version) {
+        if (!enabled() || value.size() > maxValueBytes) return;
+        segment(id).putIf(id, value, version);
+    }
+
+    /** id is about to change; returns its new version. */
+    public long invalidate(long id) {
+        return segment(id).invalidate(id);
+    }
+
+    public long bytes() {
+        long sum = 0;
+        for (Segment s : segments) sum += s.bytes();
+        return sum;
+    }
+
+    public int entries() {
+        int sum = 0;
+        for (Segment s : segments) sum += s.entries();
+        return sum;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    private Segment segment(long id) {
+        return segments[(int) (HashRing.mix(id) & (SEGMENTS - 1))];
+    }
+
+    private static long weight(ByteString v) {
+        return v.size() + ENTRY_OVERHEAD;
+    }
+
+    // the version stripe within a segment, from other bits than segment()
+    private static int stripe(long id) {
+        return (int) ((HashRing.mix(id) >>> 32) & (VERSION_STRIPES - 1));
+    }
+
+    // one W-TinyLFU cache of maxBytes / SEGMENTS
+    private static final class Segment {
+
+        private final long maxBytes;
+        private final long windowMax;
+        private final long protectedMax;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<Long, ByteString> window = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Long, ByteString> probation = new LinkedHashMap<>(16, 0.75f, true);
+        private final LinkedHashMap<Long, ByteString> protectedSeg = new LinkedHashMap<>(16, 0.75f, true);
+        private long windowBytes = 0;
+        private long probationBytes = 0;
+        private long protectedBytes = 0;
+
+        private final FrequencySketch sketch;
+        private final long[] versions = new long[VERSION_STRIPES];
+
+        Segment(long maxBytes, double windowPercent) {
+            this.maxBytes = maxBytes;
+            this.windowMax = Math.max(1, (long) (maxBytes * windowPercent / 100));
+            this.protectedMax = (long) ((maxBytes - windowMax) * 0.8);
+            this.sketch = new FrequencySketch(maxBytes / 256);
+        }
+
+        ByteString get(long id) {
+            lock.lock();
+            try {
+                sketch.increment(id);
+
+                ByteString v = window.get(id);
+                if (v == null) v = protectedSeg.get(id);
+                if (v == null) {
+                    v = probation.remove(id);
+                    if (v != null) {
+                        // hit again while on probation: protected
+                        probationBytes -= weight(v);
+                        protectedSeg.put(id, v);
+                        protectedBytes += weight(v);
+                        demoteProtected();
+                    }
+                }
+                return v;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long version(long id) {
+            lock.lock();
+            try {
+                return versions[stripe(id)];
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void putIf(long id, ByteString value, long version) {
+            lock.lock();
+            try {
+                if (versions[stripe(id)] != version) return;
+
+                remove(id);
+                if (weight(value) > windowMax) {
+                    admit(id, value);
+                    return;
+                }
+                window.put(id, value);
+                windowBytes += weight(value);
+
+                while (windowBytes > windowMax) {
+                    Map.Entry<Long, ByteString> eldest = window.entrySet().iterator().next();
+                    window.remove(eldest.getKey());
+                    windowBytes -= weight(eldest.getValue());
+                    admit(eldest.getKey(), eldest.getValue());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long invalidate(long id) {
+            lock.lock();
+            try {
+                remove(id);
+                return ++versions[stripe(id)];
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long bytes() {
+            lock.lock();
+            try {
+                return windowBytes + probationBytes + protectedBytes;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int entries() {
+            lock.lock();
+            try {
+                return window.size() + probation.size() + protectedSeg.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // a window victim gets into the main part if it is asked for more often
+        // than every main entry it has to push out
+        private void admit(long id, ByteString value) {
+            long w = weight(value);
+            long mainMax = maxBytes - windowMax;
+            if (w > mainMax) return;
+
+            int freq = sketch.frequency(id);
+            while (probationBytes + protectedBytes + w > mainMax) {
+                LinkedHashMap<Long, ByteString> from = probation.isEmpty() ? protectedSeg : probation;
+                Iterator<Map.Entry<Long, ByteString>> it = from.entrySet().iterator();
+                Map.Entry<Long, ByteString> victim = it.next();
+                if (sketch.frequency(victim.getKey()) >= freq) return;
+
+                it.remove();
+                if (from == probation) probationBytes -= weight(victim.getValue());
+                else protectedBytes -= weight(victim.getValue());
+            }
+            probation.put(id, value);
+            probationBytes += w;
+        }
+
+        // protected over its share: its least recent entries go back on probation
+        private void demoteProtected() {
+            Iterator<Map.Entry<Long, ByteString>> it = protectedSeg.entrySet().iterator();
+            while (protectedBytes > protectedMax && it.hasNext()) {
+                Map.Entry<Long, ByteString> e = it.next();
+                it.remove();
+                protectedBytes -= weight(e.getValue());
+                probation.put(e.getKey(), e.getValue());
+                probationBytes += weight(e.getValue());
+            }
+        }
+
+        private void remove(long id) {
+            ByteString v;
+            if ((v = window.remove(id)) != null) windowBytes -= weight(v);
+            if ((v = probation.remove(id)) != null) probationBytes -= weight(v);
+            if ((v = protectedSeg.remove(id)) != null) protectedBytes -= weight(v);
+        }
+    }
+
+    // count-min sketch of 4-bit counters, 4 rows; all counters are halved every
+    // 10 * width increments so old popularity fades
+    private static final class FrequencySketch {
+
+        private final byte[][] rows = new byte[4][];
+        private final int mask;
+        private final int resetAt;
+        private int additions = 0;
+
+        FrequencySketch(long expectedEntries) {
+            int width = Integer.highestOneBit((int) Math.max(1024, Math.min(1 << 22, expectedEntries)) * 2 - 1);
+            for (int i = 0; i < rows.length; i++) rows[i] = new byte[width];
+            this.mask = width - 1;
+            this.resetAt = 10 * width;
+        }
+
+        void increment(long id) {
+            long h = HashRing.mix(id);
+            boolean added = false;
+            for (int i = 0; i < rows.length; i++) {
+                int idx = index(h, i);
+                if (rows[i][idx] < 15) {
+                    rows[i][idx]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= resetAt) {
+                for (byte[] row : rows) {
+                    for (int j = 0; j < row.length; j++) row[j] >>= 1;
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(long id) {
+            long h = HashRing.mix(id);
+            int min = 15;
+            for (int i = 0; i < rows.length; i++) min = Math.min(min, rows[i][index(h, i)]);
+            return min;
+        }
+
+        private int index(long h, int row) {
+            return (int) ((h >>> 32) + row * (int) h) & mask;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.family;
+
+import com.google.protobuf.ByteString;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Hit ratio of the leader's ValueCache under Zipfian GETs (no nodes are started).
+ *
+ * Every GET that misses reads the value "from a follower" and fills the cache
+ * with putIf(), like fetchValue. Compares W-TinyLFU (ValueCache) with a plain LRU
+ * of the same byte size, for caches of 1%, 5% and 10% of the data:
+ *
+ *   zipf       all GETs from a Zipf(skew) distribution over `keys` ids
+ *   zipf+scan  every other GET is an id of a sequential scan, read only once;
+ *              the hit ratio shown is that of the Zipfian GETs
+ *
+ * Then the cost of a hit, on one thread and on `threads` threads at once.
+ *
+ *   --keys=1000000 --gets=5000000 --skew=0.99 --valueBytes=100 --threads=4
+ */
+public class ValueCacheBench {
+
+    public static void main(String[] args) throws InterruptedException {
+        int keys = 1_000_000;
+        int gets = 5_000_000;
+        double skew = 0.99;
+        int valueBytes = 100;
+        int threads = 4;
+        for (String a : args) {
+            if (a.startsWith("--keys=")) keys = Integer.parseInt(a.substring("--keys=".length()));
+            else if (a.startsWith("--gets=")) gets = Integer.parseInt(a.substring("--gets=".length()));
+            else if (a.startsWith("--skew=")) skew = Double.parseDouble(a.substring("--skew=".length()));
+            else if (a.startsWith("--valueBytes=")) valueBytes = Integer.parseInt(a.substring("--valueBytes=".length()));
+            else if (a.startsWith("--threads=")) threads = Integer.parseInt(a.substring("--threads=".length()));
+        }
+
+        ByteString value = ByteString.copyFrom(new byte[valueBytes]);
+        Zipf zipf = new Zipf(keys, skew);
+        long dataBytes = (long) keys * (valueBytes + ValueCache.ENTRY_OVERHEAD);
+
+        System.out.printf("ValueCacheBench | keys=%d | gets=%d | skew=%.2f | valueBytes=%d%n",
+                keys, gets, skew, valueBytes);
+        System.out.println("workload,cache_pct,lru_hit_pct,wtinylfu_hit_pct");
+
+        for (boolean scan : new boolean[] {false, true}) {
+            for (int pct : new int[] {1, 5, 10}) {
+                long bytes = dataBytes * pct / 100;
+                double lru = run(new ValueCache(bytes, Long.MAX_VALUE, 100), zipf, gets, scan, value);
+                double tiny = run(new ValueCache(bytes, Long.MAX_VALUE), zipf, gets, scan, value);
+                System.out.printf("%s,%d,%.1f,%.1f%n", scan ? "zipf+scan" : "zipf", pct, lru, tiny);
+            }
+        }
+
+        // cost of a hit
+        ValueCache cache = new ValueCache(dataBytes, Long.MAX_VALUE);
+        for (int id = 0; id < keys; id++) cache.putIf(id, value, cache.version(id));
+        SplittableRandom rnd = new SplittableRandom(1);
+        long[] ids = new long[gets];
+        for (int i = 0; i < gets; i++) ids[i] = zipf.next(rnd);
+        long sink = 0;
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (long id : ids) {
+                ByteString v = cache.get(id);
+                if (v != null) sink += v.size();
+            }
+            if (round == 1) {
+                System.out.printf("# hit: %d ns per get (1 thread, all keys cached)%s%n",
+                        (System.nanoTime() - start) / gets, sink < 0 ? "!" : "");
+            }
+        }
+
+        // the same GETs split over threads: ns per get of the whole run
+        for (int round = 0; round < 2; round++) {
+            Thread[] workers = new Thread[threads];
+            int share = gets / threads;
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                int from = t * share;
+                workers[t] = new Thread(() -> {
+                    for (int i = from; i < from + share; i++) cache.get(ids[i]);
+                });
+                workers[t].start();
+            }
+            for (Thread t : workers) t.join();
+            if (round == 1) {
+                System.out.printf("# hit: %d ns per get (%d threads, all keys cached)%n",
+                        (System.nanoTime() - start) / ((long) share * threads), threads);
+            }
+        }
+    }
+
+    // hit ratio of the Zipfian GETs, in percent
+    private static double run(ValueCache cache, Zipf zipf, int gets, boolean scan, ByteString value) {
+        SplittableRandom rnd = new SplittableRandom(42);
+        long scanId = Long.MAX_VALUE / 2;
+        long hits = 0, zipfGets = 0;
+
+        for (int i = 0; i < gets; i++) {
+            boolean scanning = scan && (i & 1) == 1;
+            long id = scanning ? scanId++ : zipf.next(rnd);
+
+            ByteString v = cache.get(id);
+            if (!scanning) {
+                zipfGets++;
+                if (v != null) hits++;
+            }
+            if (v == null) cache.putIf(id, value, cache.version(id));
+        }
+        return 100.0 * hits / zipfGets;
+    }
+
+    // ids 0..n-1, id k with probability proportional to 1/(k+1)^skew
+    private static final class Zipf {
+        private final double[] cdf;
+
+        Zipf(int n, double skew) {
+            cdf = new double[n];
+            double sum = 0;
+            for (int k = 0; k < n; k++) {
+                sum += 1.0 / Math.pow(k + 1, skew);
+                cdf[k] = sum;
+            }
+            for (int k = 0; k < n; k++) cdf[k] /= sum;
+        }
+
+        long next(SplittableRandom rnd) {
+            int i = Arrays.binarySearch(cdf, rnd.nextDouble());
+            return i >= 0 ? i : Math.min(cdf.length - 1, -i - 1);
+        }
+    }
+}
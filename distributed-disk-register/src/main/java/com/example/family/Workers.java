@@ -0,0 +1,52 @@
+package com.example.family;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Thread factories for blocking work (client connections, replication, gRPC handlers).
+ *
+ * With virtualThreads=true (see the java21 profile in pom.xml) every task gets its
+ * own virtual thread, so the blocking code style stays but idle connections and
+ * waiting replication calls no longer cost a platform thread each.
+ * Looked up reflectively so the default Java 17 build still compiles and runs.
+ */
+public class Workers {
+
+    private static final boolean VIRTUAL = detectVirtual();
+
+    private static boolean detectVirtual() {
+        if (!NodeConfig.getBoolean("virtualThreads", false)) return false;
+
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            System.err.println("WARNING: virtualThreads=true needs Java 21+, using platform threads");
+            return false;
+        }
+    }
+
+    public static boolean virtual() {
+        return VIRTUAL;
+    }
+
+    /** One thread per task: virtual when enabled, otherwise a cached platform pool. */
+    public static ExecutorService perTask() {
+        if (VIRTUAL) {
+            try {
+                return (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    /** Bounded pool for platform threads; unbounded per-task executor when virtual. */
+    public static ExecutorService pool(int platformThreads) {
+        return VIRTUAL ? perTask() : Executors.newFixedThreadPool(platformThreads);
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.family;
+
+import java.nio.charset.StandardCharsets;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Per-request write consistency: how many replica acks a SET waits for.
+ *
+ * The SET is always sent to all `tolerance` selected replicas; the level only
+ * decides when the client gets its OK:
+ *
+ *   ALL     every replica (the default, writeConsistency in tolerance.conf)
+ *   QUORUM  tolerance / 2 + 1
+ *   ONE     the first ack
+ *   ASYNC   at once, replication goes on in the background
+ *   <n>     n acks (at most tolerance)
+ *
+ * Text clients add it as a last token, "SET id value W=ONE" / "W=1"; binary
+ * clients send OP_SET_W with the level as first value byte (-1 ALL, -2 QUORUM,
+ * else n). Chunked large values take the level too: every chunk goes to all
+ * replicas, the OK comes after that many of them stored the whole value.
+ *
+ * A SET that returned before all replicas acked is under-replicated until the
+ * rest did; gauge replication.underReplicated counts those ids. A replica that
+ * fails after the OK is replaced by the next node in placement order (counter
+ * replication.replaced).
+ */
+public final class WriteConsistency {
+
+    public static final int ALL = -1;
+    public static final int QUORUM = -2;
+    public static final int ONE = 1;
+    public static final int ASYNC = 0;
+
+    /** option(...) result for a token that is no W=... */
+    public static final int NOT_GIVEN = Integer.MIN_VALUE;
+
+    public static final int DEFAULT = defaultLevel();
+
+    // sorted, so a SCAN can ask for its own range only
+    private static final NavigableSet<Long> underReplicated = new ConcurrentSkipListSet<>();
+
+    static {
+        LeaderMetrics.gauge("replication.underReplicated", underReplicated::size);
+    }
+
+    private WriteConsistency() {}
+
+    private static int defaultLevel() {
+        String s = NodeConfig.getString("writeConsistency", "ALL");
+        int w = level(s);
+        if (w == NOT_GIVEN) {
+            System.err.println("WARNING: bad value for writeConsistency, using default=ALL");
+            return ALL;
+        }
+        return w;
+    }
+
+    /** Acks to wait for at level w. */
+    public static int acks(int w, int tolerance) {
+        if (w == ALL) return tolerance;
+        if (w == QUORUM) return tolerance / 2 + 1;
+        return Math.max(0, Math.min(w, tolerance));
+    }
+
+    /** ALL / QUORUM / ONE / ASYNC / n (any case), NOT_GIVEN otherwise. */
+    public static int level(String s) {
+        switch (s.toUpperCase()) {
+            case "ALL":
+                return ALL;
+            case "QUORUM":
+                return QUORUM;
+            case "ONE":
+                return ONE;
+            case "ASYNC":
+                return ASYNC;
+            default:
+                try {
+                    int n = Integer.parseInt(s);
+                    return n >= 0 ? n : NOT_GIVEN;
+                } catch (NumberFormatException e) {
+                    return NOT_GIVEN;
+                }
+        }
+    }
+
+    /** ALL, QUORUM or an ack count (ASYNC is 0). */
+    public static boolean isLevel(int w) {
+        return w == ALL || w == QUORUM || w >= 0;
+    }
+
+    /** Level of a "W=<level>" token in buf[start, end), NOT_GIVEN when it is something else. */
+    public static int option(byte[] buf, int start, int end) {
+        if (end - start < 3 || (buf[start] & 0xDF) != 'W' || buf[start + 1] != '=') return NOT_GIVEN;
+        return level(new String(buf, start + 2, end - start - 2, StandardCharsets.US_ASCII));
+    }
+
+    public static int option(String token) {
+        if (token.length() < 3 || (token.charAt(0) & 0xDF) != 'W' || token.charAt(1) != '=') return NOT_GIVEN;
+        return level(token.substring(2));
+    }
+
+    /** The SET of id returned with fewer than all of its replicas. */
+    public static void behind(long id) {
+        underReplicated.add(id);
+    }
+
+    /** All replicas of id acked (or a later SET replaced it). */
+    public static void caughtUp(long id) {
+        underReplicated.remove(id);
+    }
+
+    public static boolean isBehind(long id) {
+        return underReplicated.contains(id);
+    }
+
+    /** Some id in [from, to] has fewer copies than tolerance right now. */
+    public static boolean anyBehind(long from, long to) {
+        return from <= to && !underReplicated.subSet(from, true, to, true).isEmpty();
+    }
+}
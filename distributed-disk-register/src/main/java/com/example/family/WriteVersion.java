@@ -0,0 +1,22 @@
+package com.example.family;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Versions of the leader's writes: every SET gets a larger one than the SETs
+ * before it, also across a leader restart (milliseconds since the epoch in the
+ * high bits, a counter below). The version goes with each replica write and
+ * hint; followers keep the newest one per id and ignore an older write that
+ * arrives late, such as a replayed hint. 0 = unversioned, always applied.
+ */
+public final class WriteVersion {
+
+    private static final AtomicLong last = new AtomicLong();
+
+    private WriteVersion() {}
+
+    public static long next() {
+        long now = System.currentTimeMillis() << 20;
+        return last.updateAndGet(v -> Math.max(v + 1, now));
+    }
+}